@@ -5,12 +5,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import ru.practicum.client.StatsClient;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.UriRangeDto;
 import ru.practicum.dto.ViewStatsDto;
 import ru.practicum.ewm.event.model.Event;
 
 import javax.servlet.http.HttpServletRequest;
 import java.time.LocalDateTime;
-import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,13 +20,16 @@ import java.util.stream.Collectors;
 public class StatisticServiceImpl implements StatisticService {
     private final StatsClient statsClient;
     private final String appName;
+    private final boolean approximateViews;
 
     @Autowired
     public StatisticServiceImpl(@Value("${stats-server.url}") String url,
                                 @Value("${application.name}") String appName,
+                                @Value("${stats-server.approximate-views:false}") boolean approximateViews,
                                 StatsClient statsClient) {
         this.statsClient = statsClient;
         this.appName = appName;
+        this.approximateViews = approximateViews;
     }
 
 
@@ -45,19 +48,16 @@ public class StatisticServiceImpl implements StatisticService {
         if (events == null || events.isEmpty()) {
             return null;
         }
-        List<Long> ids = events.stream()
-                .map(Event::getId)
-                .collect(Collectors.toList());
-
-        events.stream().sorted(Comparator.comparing(Event::getCreatedOn)).collect(Collectors.toList());
-
-        LocalDateTime start = events.get(0).getCreatedOn();
         LocalDateTime end = LocalDateTime.now();
         String eventsUri = "/events/";
-        List<String> uris = ids.stream()
-                .map(id -> eventsUri + id)
+        List<UriRangeDto> ranges = events.stream()
+                .map(event -> UriRangeDto.builder()
+                        .uri(eventsUri + event.getId())
+                        .start(event.getPublishedOn() != null ? event.getPublishedOn() : event.getCreatedOn())
+                        .end(end)
+                        .build())
                 .collect(Collectors.toList());
-        List<ViewStatsDto> views = statsClient.getStats(start, end, uris, true);
+        List<ViewStatsDto> views = statsClient.queryStats(ranges, true, approximateViews);
 
         Map<Long, Long> viewsMap = new HashMap<>();
         for (ViewStatsDto view : views) {
@@ -0,0 +1,44 @@
+package ru.practicum.bench;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Connection to the Postgres database the benchmarks run against, given by the bench.jdbc.url, bench.jdbc.user and
+ * bench.jdbc.password system properties. The database should be dedicated to benchmarking: benchmarks create the
+ * stats-server schema in it and may truncate its tables.
+ */
+public final class BenchDatabase {
+    public static final String URL = System.getProperty("bench.jdbc.url",
+            "jdbc:postgresql://localhost:5432/stats_bench");
+    public static final String USER = System.getProperty("bench.jdbc.user", "postgres");
+    public static final String PASSWORD = System.getProperty("bench.jdbc.password", "postgres");
+
+    private BenchDatabase() {
+    }
+
+    public static SingleConnectionDataSource dataSource() {
+        SingleConnectionDataSource dataSource = new SingleConnectionDataSource(URL, USER, PASSWORD, true);
+        dataSource.setAutoCommit(true);
+        return dataSource;
+    }
+
+    public static TransactionTemplate transactionTemplate(SingleConnectionDataSource dataSource) {
+        return new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    /**
+     * Creates whatever the stats-server schema.sql creates and is still missing.
+     */
+    public static void createSchema(JdbcTemplate jdbcTemplate) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource("schema.sql"));
+            return null;
+        });
+    }
+}
@@ -0,0 +1,71 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import ru.practicum.server.sketch.IpBitmaps;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exact unique hits of one uri over a range of days, as BitmapService counts them: the stored day bitmaps are
+ * deserialized and ORed, against the distinct encoded ips of the raw hits that the SQL engine and the fallback for
+ * uncovered days go through. Visitors are drawn from a pool twice the size of a day, so days overlap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BitmapUnionBenchmark {
+    @Param({"7", "30"})
+    private int days;
+
+    @Param({"10000", "100000"})
+    private int visitorsPerDay;
+
+    private List<byte[]> bitmaps;
+    private List<long[]> rawIps;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        bitmaps = new ArrayList<>(days);
+        rawIps = new ArrayList<>(days);
+        for (int day = 0; day < days; day++) {
+            long[] ips = new long[visitorsPerDay];
+            Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+            for (int i = 0; i < visitorsPerDay; i++) {
+                ips[i] = 0x0A000000L + random.nextInt(2 * visitorsPerDay);
+                bitmap.addLong(ips[i]);
+            }
+            bitmaps.add(IpBitmaps.toBytes(bitmap));
+            rawIps.add(ips);
+        }
+    }
+
+    @Benchmark
+    public long bitmapUnion() {
+        Roaring64NavigableMap union = new Roaring64NavigableMap();
+        for (byte[] bitmap : bitmaps) {
+            union.or(IpBitmaps.fromBytes(bitmap));
+        }
+        return union.getLongCardinality();
+    }
+
+    @Benchmark
+    public long rawDistinct() {
+        Set<Long> distinct = new HashSet<>();
+        for (long[] ips : rawIps) {
+            for (long ip : ips) {
+                distinct.add(ip);
+            }
+        }
+        return distinct.size();
+    }
+}
@@ -0,0 +1,108 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.server.EwmStatsServer;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hits per second a stats-server ingests over HTTP from one client, posting each hit to /hit against posting them in
+ * batches to /hits/batch. The server runs in the benchmark JVM with its default settings on the
+ * {@link BenchDatabase}; the hits of earlier runs are deleted first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class IngestBenchmark {
+    private static final String APP = "stats-bench";
+    private static final int URIS = 1000;
+    private static final int VISITORS = 100_000;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private final Random random = new Random(42);
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private URI hitUri;
+    private URI batchUri;
+
+    @Setup
+    public void setUp() {
+        context = new SpringApplicationBuilder(EwmStatsServer.class).run("--server.port=0",
+                "--spring.datasource.url=" + BenchDatabase.URL,
+                "--spring.datasource.username=" + BenchDatabase.USER,
+                "--spring.datasource.password=" + BenchDatabase.PASSWORD,
+                "--spring.jpa.show-sql=false");
+        new JdbcTemplate(context.getBean(DataSource.class)).update(
+                "DELETE FROM stats WHERE app_id IN (SELECT id FROM stats_app_dictionary WHERE app = ?) " +
+                        "AND timestamp >= ?", APP, Timestamp.valueOf(LocalDateTime.now().minusDays(1)));
+        String base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        hitUri = URI.create(base + "/hit");
+        batchUri = URI.create(base + "/hits/batch");
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    @Benchmark
+    public int single() throws IOException, InterruptedException {
+        return post(hitUri, hit());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(100)
+    public int batchOf100() throws IOException, InterruptedException {
+        return post(batchUri, batch(100));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(1000)
+    public int batchOf1000() throws IOException, InterruptedException {
+        return post(batchUri, batch(1000));
+    }
+
+    private String batch(int size) {
+        StringJoiner hits = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < size; i++) {
+            hits.add(hit());
+        }
+        return hits.toString();
+    }
+
+    private String hit() {
+        int visitor = random.nextInt(VISITORS);
+        return "{\"app\":\"" + APP + "\",\"uri\":\"/events/" + (random.nextInt(URIS) + 1) + "\",\"ip\":\"10." +
+                (visitor >> 16) + "." + ((visitor >> 8) & 0xFF) + "." + (visitor & 0xFF) + "\",\"timestamp\":\"" +
+                LocalDateTime.now().format(TIMESTAMP) + "\"}";
+    }
+
+    private int post(URI uri, String body) throws IOException, InterruptedException {
+        HttpResponse<Void> response = client.send(HttpRequest.newBuilder(uri)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build(), HttpResponse.BodyHandlers.discarding());
+        if (response.statusCode() != 201) {
+            throw new IllegalStateException("POST " + uri + " returned " + response.statusCode());
+        }
+        return response.statusCode();
+    }
+}
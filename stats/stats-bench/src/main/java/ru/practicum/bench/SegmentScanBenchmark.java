@@ -0,0 +1,203 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.repository.StatsRepositoryCustomImpl;
+import ru.practicum.server.service.PartitionManager;
+import ru.practicum.server.service.SegmentHitStore;
+import ru.practicum.server.storage.Segment;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Raw-hit scans of stats.storage=segment against the stats table behind stats.storage=jpa, over the same synthetic
+ * hits: rows hits spread evenly over 30 days in time order, over 1000 uris and a million ipv4 visitors. The data is
+ * generated once and kept: segments under bench.dir, rows in the {@link BenchDatabase} stats table, which is
+ * refilled when it holds a different number of rows in those 30 days.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SegmentScanBenchmark {
+    private static final LocalDateTime START = LocalDateTime.of(2026, 1, 1, 0, 0);
+    private static final int DAYS = 30;
+    private static final int URIS = 1000;
+    private static final int VISITORS = 1_000_000;
+    private static final long IP_BASE = 0x0A000000L;
+    private static final int SEGMENT_ROWS = 1_048_576;
+    private static final long FILL_CHUNK = 1_000_000;
+    private static final List<Integer> TEN_URIS = IntStream.rangeClosed(1, 10).boxed().collect(Collectors.toList());
+
+    @Param({"100000000"})
+    private long rows;
+
+    @Param({"segment", "postgres"})
+    private String store;
+
+    private Scan scan;
+    private SingleConnectionDataSource dataSource;
+    private SegmentHitStore segmentStore;
+
+    @Setup
+    public void setUp() throws IOException {
+        if ("segment".equals(store)) {
+            Path directory = Paths.get(System.getProperty("bench.dir",
+                    Paths.get(System.getProperty("java.io.tmpdir"), "stats-bench-segments").toString()), "" + rows);
+            fillSegments(directory);
+            segmentStore = new SegmentHitStore(null, null, null, directory.toString(), SEGMENT_ROWS, 0);
+            segmentStore.open();
+            scan = new Scan() {
+                @Override
+                public List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+                    return segmentStore.countHits(from, to, uriIds);
+                }
+
+                @Override
+                public List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+                    return segmentStore.countUniqueHits(from, to, uriIds);
+                }
+            };
+        } else {
+            dataSource = BenchDatabase.dataSource();
+            JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+            fillStats(jdbcTemplate);
+            StatsRepositoryCustomImpl repository = new StatsRepositoryCustomImpl(jdbcTemplate);
+            scan = new Scan() {
+                @Override
+                public List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+                    return repository.countHits(from, to, uriIds);
+                }
+
+                @Override
+                public List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+                    return repository.countUniqueHits(from, to, uriIds);
+                }
+            };
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        if (segmentStore != null) {
+            segmentStore.close();
+        }
+        if (dataSource != null) {
+            dataSource.destroy();
+        }
+    }
+
+    @Benchmark
+    public List<HitCount> hitsOfOneDay() {
+        return scan.countHits(START.plusDays(15), START.plusDays(16), null);
+    }
+
+    @Benchmark
+    public List<HitCount> hitsOfAllDays() {
+        return scan.countHits(START, START.plusDays(DAYS), null);
+    }
+
+    @Benchmark
+    public List<HitCount> hitsOfTenUris() {
+        return scan.countHits(START, START.plusDays(DAYS), TEN_URIS);
+    }
+
+    @Benchmark
+    public List<HitCount> uniqueHitsOfOneDay() {
+        return scan.countUniqueHits(START.plusDays(15), START.plusDays(16), null);
+    }
+
+    private long stepMicros() {
+        return DAYS * 86_400_000_000L / rows;
+    }
+
+    private static int uriId(long row) {
+        return (int) (row * 7919 % URIS) + 1;
+    }
+
+    private static long ip(long row) {
+        return IP_BASE + row * 2654435761L % VISITORS;
+    }
+
+    private void fillSegments(Path directory) throws IOException {
+        if (Files.exists(directory.resolve("CLEAN"))) {
+            return;
+        }
+        if (Files.exists(directory)) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                    Files.delete(file);
+                }
+            }
+        }
+        Files.createDirectories(directory);
+        long start = START.toEpochSecond(ZoneOffset.UTC) * 1_000_000L;
+        long step = stepMicros();
+        Segment segment = null;
+        int number = 0;
+        for (long row = 0; row < rows; row++) {
+            if (segment == null || segment.isFull()) {
+                if (segment != null) {
+                    segment.publish();
+                    segment.close();
+                }
+                segment = Segment.create(directory.resolve(String.format("segment-%08d.dat", number++)),
+                        SEGMENT_ROWS);
+            }
+            segment.append(start + row * step, 1, uriId(row), ip(row), 1);
+        }
+        if (segment != null) {
+            segment.publish();
+            segment.close();
+        }
+        Files.createFile(directory.resolve("CLEAN"));
+    }
+
+    private void fillStats(JdbcTemplate jdbcTemplate) {
+        BenchDatabase.createSchema(jdbcTemplate);
+        Long count = jdbcTemplate.queryForObject("SELECT count(*) FROM stats WHERE timestamp >= ? AND timestamp < ?",
+                Long.class, Timestamp.valueOf(START), Timestamp.valueOf(START.plusDays(DAYS)));
+        if (count != null && count == rows) {
+            return;
+        }
+        jdbcTemplate.execute("TRUNCATE stats");
+        List<LocalDate> days = new ArrayList<>();
+        for (int day = 0; day < DAYS; day++) {
+            days.add(START.toLocalDate().plusDays(day));
+        }
+        new PartitionManager(jdbcTemplate, BenchDatabase.transactionTemplate(dataSource), "day", 0, 0)
+                .createPartitions(days);
+        for (long from = 0; from < rows; from += FILL_CHUNK) {
+            jdbcTemplate.update("INSERT INTO stats (app_id, uri_id, ip, timestamp) " +
+                            "SELECT 1, g * 7919 % ? + 1, int4send((? + g * 2654435761 % ?)::int), " +
+                            "CAST(? AS TIMESTAMP) + g * ? * INTERVAL '1 microsecond' FROM generate_series(?, ?) AS g",
+                    URIS, IP_BASE, VISITORS, Timestamp.valueOf(START), stepMicros(), from,
+                    Math.min(from + FILL_CHUNK, rows) - 1);
+        }
+        jdbcTemplate.execute("VACUUM ANALYZE stats");
+    }
+
+    private interface Scan {
+        List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+        List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+    }
+}
@@ -0,0 +1,177 @@
+package ru.practicum.bench;
+
+import org.openjdk.jmh.annotations.*;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import ru.practicum.server.EwmStatsServer;
+
+import javax.sql.DataSource;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.StringJoiner;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Requests per second a stats-server serves with `concurrency` requests in flight at once, each on its own
+ * keep-alive connection, in the servlet mode on Tomcat against the reactive one on WebFlux and Netty. Every
+ * invocation sends a wave of concurrent requests and waits for the slowest, so the score in waves per second also
+ * reflects the tail latency; the requests counter gives the same throughput per request. Both modes ingest
+ * synchronously, the default, and serve the hits posted in the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class ServingModeBenchmark {
+    private static final String APP = "stats-bench";
+    private static final int URIS = 1000;
+    private static final int VISITORS = 100_000;
+    private static final int SEED_HITS = 100_000;
+    private static final int SEED_BATCH_SIZE = 10_000;
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Param({"servlet", "reactive"})
+    public String mode;
+
+    @Param({"100", "1000"})
+    public int concurrency;
+
+    private final Random random = new Random(42);
+    private ConfigurableApplicationContext context;
+    private HttpClient client;
+    private String base;
+    private String start;
+
+    /**
+     * Requests completed by a benchmark thread, reported per second next to the waves.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Requests {
+        public long requests;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(EwmStatsServer.class);
+        if ("reactive".equals(mode)) {
+            builder.profiles("reactive");
+        }
+        context = builder.run("--server.port=0",
+                "--spring.datasource.url=" + BenchDatabase.URL,
+                "--spring.datasource.username=" + BenchDatabase.USER,
+                "--spring.datasource.password=" + BenchDatabase.PASSWORD,
+                "--spring.jpa.show-sql=false");
+        new JdbcTemplate(context.getBean(DataSource.class)).update(
+                "DELETE FROM stats WHERE app_id IN (SELECT id FROM stats_app_dictionary WHERE app = ?) " +
+                        "AND timestamp >= ?", APP, Timestamp.valueOf(LocalDateTime.now().minusDays(1)));
+        base = "http://localhost:" + context.getEnvironment().getProperty("local.server.port");
+        start = encode(LocalDateTime.now().minusDays(1).format(TIMESTAMP));
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        for (int i = 0; i < SEED_HITS; i += SEED_BATCH_SIZE) {
+            send(post("/hits/batch", batch(SEED_BATCH_SIZE)), 201).join();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Hits of one uri over the last day, answered from the rollups or the aggregate cache.
+     */
+    @Benchmark
+    public void stats(Requests requests) {
+        wave(requests, () -> get("/stats?start=" + start + "&end=" + now() + "&uris=/events/" +
+                (random.nextInt(URIS) + 1), "application/json"));
+    }
+
+    /**
+     * Hits of every uri over the last day as NDJSON, streamed from the database row by row.
+     */
+    @Benchmark
+    public void streamStats(Requests requests) {
+        wave(requests, () -> get("/stats?start=" + start + "&end=" + now(), "application/x-ndjson"));
+    }
+
+    @Benchmark
+    public void hit(Requests requests) {
+        wave(requests, () -> post("/hit", hit()));
+    }
+
+    private void wave(Requests completed, Supplier<HttpRequest> requests) {
+        CompletableFuture<?>[] responses = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            HttpRequest request = requests.get();
+            responses[i] = send(request, "POST".equals(request.method()) ? 201 : 200);
+        }
+        CompletableFuture.allOf(responses).join();
+        completed.requests += concurrency;
+    }
+
+    private CompletableFuture<Integer> send(HttpRequest request, int expectedStatus) {
+        return client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(response -> {
+            if (response.statusCode() != expectedStatus) {
+                throw new IllegalStateException(request.method() + " " + request.uri() + " returned " +
+                        response.statusCode());
+            }
+            return response.statusCode();
+        });
+    }
+
+    private HttpRequest get(String path, String accept) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Accept", accept)
+                .GET()
+                .build();
+    }
+
+    private HttpRequest post(String path, String body) {
+        return HttpRequest.newBuilder(URI.create(base + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private String batch(int size) {
+        StringJoiner hits = new StringJoiner(",", "[", "]");
+        for (int i = 0; i < size; i++) {
+            hits.add(hit());
+        }
+        return hits.toString();
+    }
+
+    private String hit() {
+        int visitor = random.nextInt(VISITORS);
+        return "{\"app\":\"" + APP + "\",\"uri\":\"/events/" + (random.nextInt(URIS) + 1) + "\",\"ip\":\"10." +
+                (visitor >> 16) + "." + ((visitor >> 8) & 0xFF) + "." + (visitor & 0xFF) + "\",\"timestamp\":\"" +
+                LocalDateTime.now().format(TIMESTAMP) + "\"}";
+    }
+
+    private static String now() {
+        return encode(LocalDateTime.now().format(TIMESTAMP));
+    }
+
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8);
+    }
+}
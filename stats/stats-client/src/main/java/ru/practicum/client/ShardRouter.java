@@ -0,0 +1,36 @@
+package ru.practicum.client;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the 32-bit CRC of a uri into equal consecutive ranges, one per shard, so that every client sends all hits of
+ * a uri to the same stats-server and each uri is counted by exactly one shard.
+ */
+public class ShardRouter {
+    private final int shards;
+
+    public ShardRouter(int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards;
+    }
+
+    public int size() {
+        return shards;
+    }
+
+    public int shardOf(String uri) {
+        CRC32 crc = new CRC32();
+        crc.update(uri.getBytes(StandardCharsets.UTF_8));
+        return (int) ((crc.getValue() * shards) >>> 32);
+    }
+
+    /**
+     * Whether the uri is a /* or /** pattern, which may match uris on every shard.
+     */
+    public static boolean isPattern(String uri) {
+        return uri.indexOf('*') >= 0;
+    }
+}
@@ -1,51 +1,344 @@
 package ru.practicum.client;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.util.retry.Retry;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.UriRangeDto;
 import ru.practicum.dto.ViewStatsDto;
 
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
+/**
+ * Client of one stats-server or of several hash-sharded ones. Hits are sent to the shard owning their uri (see
+ * {@link ShardRouter}) and reads go, in parallel, only to the shards that can hold the requested uris, with the
+ * partial results merged by hits. As every uri lives on one shard, merged rows and unique counts stay exact.
+ */
 @Component
 public class StatsClient {
     private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-    private final WebClient webClient;
+    private static final Comparator<ViewStatsDto> BY_HITS = Comparator.comparing(ViewStatsDto::getHits).reversed();
+    private static final ParameterizedTypeReference<ServerSentEvent<List<ViewStatsDto>>> LIVE_EVENT =
+            new ParameterizedTypeReference<>() {
+            };
+    private static final Duration WRITE_TIMEOUT = Duration.ofSeconds(5);
+    private static final Retry WRITE_RETRY = Retry.backoff(3, Duration.ofMillis(200))
+            .filter(StatsClient::isRetryable)
+            .onRetryExhaustedThrow((spec, signal) -> signal.failure());
+    private final List<WebClient> shards;
+    private final ShardRouter router;
 
+    /**
+     * @param host stats-server url, or comma-separated urls of all shards in shard order
+     */
     @Autowired
     public StatsClient(String host) {
-        this.webClient = WebClient.create(host);
+        this.shards = Arrays.stream(host.split(","))
+                .map(String::trim)
+                .filter(url -> !url.isEmpty())
+                .map(WebClient::create)
+                .collect(Collectors.toList());
+        this.router = new ShardRouter(shards.size());
     }
 
+    /**
+     * Sends the hit, retrying on timeouts, connection errors and 5xx responses other than 503, which a saturated
+     * server answers with. The hit is given a hitId first if it has none, so that the server stores it once however
+     * many attempts reach it.
+     */
     public EndpointHitDto create(EndpointHitDto endpointHitDto) {
-        return webClient
+        assignHitId(endpointHitDto);
+        return shards.get(router.shardOf(endpointHitDto.getUri()))
                 .post()
                 .uri("/hit")
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(BodyInserters.fromValue(endpointHitDto))
                 .retrieve()
                 .bodyToMono(EndpointHitDto.class)
+                .timeout(WRITE_TIMEOUT)
+                .retryWhen(WRITE_RETRY)
+                .block();
+    }
+
+    /**
+     * Sends the hits in one batch per shard, retried like {@link #create}.
+     */
+    public List<EndpointHitDto> createAll(List<EndpointHitDto> endpointHitDtos) {
+        endpointHitDtos.forEach(StatsClient::assignHitId);
+        Map<Integer, List<EndpointHitDto>> byShard = endpointHitDtos.stream()
+                .collect(Collectors.groupingBy(hit -> router.shardOf(hit.getUri())));
+        return Flux.merge(byShard.entrySet().stream()
+                        .map(shardHits -> shards.get(shardHits.getKey())
+                                .post()
+                                .uri("/hits/batch")
+                                .contentType(MediaType.APPLICATION_JSON)
+                                .body(BodyInserters.fromValue(shardHits.getValue()))
+                                .retrieve()
+                                .bodyToFlux(EndpointHitDto.class)
+                                .collectList()
+                                .timeout(WRITE_TIMEOUT)
+                                .retryWhen(WRITE_RETRY)
+                                .flatMapIterable(hits -> hits))
+                        .collect(Collectors.toList()))
+                .collectList()
                 .block();
     }
 
     public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique) {
-        return webClient
+        return getStats(start, end, uris, unique, false);
+    }
+
+    public List<ViewStatsDto> getStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                                       boolean approximate) {
+        return gather(byShard(uris, uri -> uri), (shard, shardUris) -> shard
                 .get()
                 .uri(uriBuilder -> uriBuilder
                         .path("/stats")
                         .queryParam("start", start.format(TIME_FORMATTER))
                         .queryParam("end", end.format(TIME_FORMATTER))
-                        .queryParam("uris", uris)
+                        .queryParamIfPresent("uris", Optional.ofNullable(shardUris))
                         .queryParam("unique", unique)
+                        .queryParam("approximate", approximate)
+                        .build())
+                .retrieve()
+                .bodyToFlux(ViewStatsDto.class))
+                .collectSortedList(BY_HITS)
+                .block();
+    }
+
+    /**
+     * Stats of every uri matching a single /path/* pattern, with each row's uri replaced by the segment the *
+     * matched, e.g. the event id for /events/*.
+     */
+    public List<ViewStatsDto> getStatsByPathParam(LocalDateTime start, LocalDateTime end, String uriPattern,
+                                                  Boolean unique) {
+        return gather(byShard(List.of(uriPattern), uri -> uri), (shard, shardUris) -> shard
+                .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats")
+                        .queryParam("start", start.format(TIME_FORMATTER))
+                        .queryParam("end", end.format(TIME_FORMATTER))
+                        .queryParam("uris", shardUris)
+                        .queryParam("unique", unique)
+                        .queryParam("groupBy", "pathParam")
+                        .build())
+                .retrieve()
+                .bodyToFlux(ViewStatsDto.class))
+                .collectSortedList(BY_HITS)
+                .block();
+    }
+
+    /**
+     * Stats of several uris in one request per shard, each counted over its own [start, end] window.
+     */
+    public List<ViewStatsDto> queryStats(List<UriRangeDto> ranges, boolean unique) {
+        return queryStats(ranges, unique, false);
+    }
+
+    /**
+     * Like {@link #queryStats(List, boolean)}; with approximate, the unique hits of a uri whose window holds all of
+     * its hits are estimated from its lifetime sketch instead of counted. The ranges of a shard are sent in requests
+     * of at most {@link StatsQueryDto#MAX_RANGES}, whose rows are merged.
+     */
+    public List<ViewStatsDto> queryStats(List<UriRangeDto> ranges, boolean unique, boolean approximate) {
+        return gather(byShard(ranges, UriRangeDto::getUri), (shard, shardRanges) -> Flux
+                .fromIterable(chunks(shardRanges, StatsQueryDto.MAX_RANGES))
+                .flatMap(chunk -> shard
+                        .post()
+                        .uri("/stats/query")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(BodyInserters.fromValue(new StatsQueryDto(chunk, unique, approximate)))
+                        .retrieve()
+                        .bodyToFlux(ViewStatsDto.class)))
+                .collectSortedList(BY_HITS)
+                .block();
+    }
+
+    /**
+     * Top k of all shards. Each shard returns its own top k, which together always contain the overall top k.
+     */
+    public List<ViewStatsDto> getTop(LocalDateTime start, LocalDateTime end, int k) {
+        return gather(this.<String>byShard(null, uri -> uri), (shard, none) -> shard
+                .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats/top")
+                        .queryParam("start", start.format(TIME_FORMATTER))
+                        .queryParam("end", end.format(TIME_FORMATTER))
+                        .queryParam("k", k)
                         .build())
                 .retrieve()
-                .bodyToFlux(ViewStatsDto.class)
+                .bodyToFlux(ViewStatsDto.class))
+                .sort(BY_HITS)
+                .take(k)
                 .collectList()
                 .block();
     }
-}
\ No newline at end of file
+
+    /**
+     * Hits and unique hits of the uri per minute, hour or day bucket, fetched in one request per shard. For a
+     * pattern spread over several shards, unique hits of a bucket are summed over the shards and may count an ip
+     * more than once. A bucket whose unique hits any shard does not know, as for compacted days, has none.
+     */
+    public List<HistogramBucketDto> getHistogram(LocalDateTime start, LocalDateTime end, String uri,
+                                                 String bucket) {
+        Map<LocalDateTime, HistogramBucketDto> buckets = new TreeMap<>();
+        gather(byShard(List.of(uri), u -> u), (shard, shardUris) -> shard
+                .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats/histogram")
+                        .queryParam("uri", uri)
+                        .queryParam("start", start.format(TIME_FORMATTER))
+                        .queryParam("end", end.format(TIME_FORMATTER))
+                        .queryParam("bucket", bucket)
+                        .build())
+                .retrieve()
+                .bodyToFlux(HistogramBucketDto.class))
+                .toStream()
+                .forEach(part -> buckets.merge(part.getStart(), part, (merged, other) -> new HistogramBucketDto(
+                        merged.getStart(), merged.getHits() + other.getHits(),
+                        merged.getUniqueHits() == null || other.getUniqueHits() == null ? null
+                                : merged.getUniqueHits() + other.getUniqueHits())));
+        return new ArrayList<>(buckets.values());
+    }
+
+    /**
+     * Changes ingested after the cursor, one page of at most limit changes from every shard. The returned cursor
+     * holds the cursors of all shards and is passed back as is; without one every shard is read from its start.
+     */
+    public StatsChangesDto getChanges(String since, int limit) {
+        String[] cursors = since == null ? new String[shards.size()] : since.split(",", -1);
+        if (cursors.length != shards.size()) {
+            throw new IllegalArgumentException("Cursor holds " + cursors.length + " shard cursors, expected " +
+                    shards.size());
+        }
+        List<StatsChangesDto> pages = Flux.mergeSequential(IntStream.range(0, shards.size())
+                        .mapToObj(shard -> shards.get(shard)
+                                .get()
+                                .uri(uriBuilder -> uriBuilder
+                                        .path("/stats/changes")
+                                        .queryParamIfPresent("since", Optional.ofNullable(cursors[shard]))
+                                        .queryParam("limit", limit)
+                                        .build())
+                                .retrieve()
+                                .bodyToMono(StatsChangesDto.class))
+                        .collect(Collectors.toList()))
+                .collectList()
+                .block();
+        return new StatsChangesDto(
+                pages.stream().flatMap(page -> page.getChanges().stream()).collect(Collectors.toList()),
+                pages.stream().map(StatsChangesDto::getCursor).collect(Collectors.joining(",")),
+                pages.stream().anyMatch(StatsChangesDto::isHasMore));
+    }
+
+    /**
+     * Reads /stats as NDJSON from the shards and hands each row to the consumer as it arrives instead of collecting
+     * the list. Rows of different shards are interleaved so that the most hit still come first.
+     */
+    public void streamStats(LocalDateTime start, LocalDateTime end, List<String> uris, Boolean unique,
+                            Consumer<ViewStatsDto> consumer) {
+        Map<WebClient, List<String>> targets = byShard(uris, uri -> uri);
+        targets.entrySet().stream()
+                .map(target -> target.getKey()
+                        .get()
+                        .uri(uriBuilder -> uriBuilder
+                                .path("/stats")
+                                .queryParam("start", start.format(TIME_FORMATTER))
+                                .queryParam("end", end.format(TIME_FORMATTER))
+                                .queryParamIfPresent("uris", Optional.ofNullable(target.getValue()))
+                                .queryParam("unique", unique)
+                                .build())
+                        .accept(MediaType.APPLICATION_NDJSON)
+                        .retrieve()
+                        .bodyToFlux(ViewStatsDto.class))
+                .reduce((merged, other) -> merged.mergeComparingWith(other, BY_HITS))
+                .orElseGet(Flux::empty)
+                .doOnNext(consumer)
+                .blockLast();
+    }
+
+    /**
+     * Subscribes to the lifetime counts of the uris pushed by /stats/stream of the shards holding them: all current
+     * counts first, then those that change. Dispose the result to unsubscribe.
+     */
+    public Disposable subscribeStats(List<String> uris, boolean unique, Consumer<List<ViewStatsDto>> consumer) {
+        return gather(byShard(uris, uri -> uri), (shard, shardUris) -> shard
+                .get()
+                .uri(uriBuilder -> uriBuilder
+                        .path("/stats/stream")
+                        .queryParamIfPresent("uris", Optional.ofNullable(shardUris))
+                        .queryParam("unique", unique)
+                        .build())
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .retrieve()
+                .bodyToFlux(LIVE_EVENT)
+                .filter(event -> event.data() != null)
+                .map(ServerSentEvent::data))
+                .subscribe(consumer);
+    }
+
+    /**
+     * Items grouped by the shard owning their uri. Without items, or when any uri is a pattern, every shard gets
+     * all of them.
+     */
+    private <T> Map<WebClient, List<T>> byShard(List<T> items, Function<T, String> uri) {
+        Map<WebClient, List<T>> targets = new LinkedHashMap<>();
+        if (items == null || items.isEmpty() || items.stream().map(uri).anyMatch(ShardRouter::isPattern)) {
+            shards.forEach(shard -> targets.put(shard, items));
+            return targets;
+        }
+        for (T item : items) {
+            targets.computeIfAbsent(shards.get(router.shardOf(uri.apply(item))), shard -> new ArrayList<>())
+                    .add(item);
+        }
+        return targets;
+    }
+
+    private static <T> List<List<T>> chunks(List<T> items, int size) {
+        return IntStream.range(0, (items.size() + size - 1) / size)
+                .mapToObj(chunk -> items.subList(chunk * size, Math.min((chunk + 1) * size, items.size())))
+                .collect(Collectors.toList());
+    }
+
+    private static void assignHitId(EndpointHitDto endpointHitDto) {
+        if (endpointHitDto.getHitId() == null) {
+            endpointHitDto.setHitId(UUID.randomUUID());
+        }
+    }
+
+    private static boolean isRetryable(Throwable error) {
+        return error instanceof TimeoutException
+                || error instanceof WebClientRequestException
+                || error instanceof WebClientResponseException
+                && ((WebClientResponseException) error).getStatusCode().is5xxServerError()
+                && ((WebClientResponseException) error).getStatusCode() != HttpStatus.SERVICE_UNAVAILABLE;
+    }
+
+    private static <T, R> Flux<R> gather(Map<WebClient, List<T>> targets,
+                                         BiFunction<WebClient, List<T>, Flux<R>> request) {
+        return Flux.merge(targets.entrySet().stream()
+                .map(target -> request.apply(target.getKey(), target.getValue()))
+                .collect(Collectors.toList()));
+    }
+}
@@ -4,7 +4,9 @@ import com.fasterxml.jackson.annotation.JsonFormat;
 import lombok.*;
 
 import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.Size;
 import java.time.LocalDateTime;
+import java.util.UUID;
 
 @Getter
 @Setter
@@ -14,11 +16,17 @@ import java.time.LocalDateTime;
 public class EndpointHitDto {
     private Long id;
     @NotBlank
+    @Size(max = 100)
     private String app;
     @NotBlank
+    @Size(max = 100)
     private String uri;
     @NotBlank
     private String ip;
     @JsonFormat(shape = JsonFormat.Shape.STRING, pattern = "yyyy-MM-dd HH:mm:ss")
     private LocalDateTime timestamp;
+    /**
+     * Optional client-generated id. A hit sent again with the same id, e.g. on retry, is stored only once.
+     */
+    private UUID hitId;
 }
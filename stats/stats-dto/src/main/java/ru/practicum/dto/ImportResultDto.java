@@ -0,0 +1,17 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class ImportResultDto {
+    private Long imported;
+    private Long rejected;
+    private Long duplicates;
+    private List<String> errors;
+}
@@ -0,0 +1,15 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StatsChangeDto {
+    private String app;
+    private String uri;
+    private Long hits;
+    private Long uniqueHits;
+}
@@ -0,0 +1,19 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import java.util.List;
+
+/**
+ * Changes ingested after the requested cursor, summed per (app, uri), and the cursor to request the next page with.
+ */
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StatsChangesDto {
+    private List<StatsChangeDto> changes;
+    private String cursor;
+    private boolean hasMore;
+}
@@ -0,0 +1,22 @@
+package ru.practicum.dto;
+
+import lombok.*;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Size;
+import java.util.List;
+
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+public class StatsQueryDto {
+    public static final int MAX_RANGES = 1000;
+    @NotEmpty
+    @Size(max = MAX_RANGES)
+    private List<@Valid UriRangeDto> ranges;
+    private boolean unique;
+    private boolean approximate;
+}
@@ -0,0 +1,80 @@
+package ru.practicum.server.admission;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.exception.ErrorMessage;
+
+import java.time.Duration;
+
+/**
+ * Separate admission lanes for writes (/hit, /hits/**), bulk imports (/hits/import) and reads (/stats, /stats/**), so
+ * that a slow database saturating one path neither blocks the others nor ties up every server thread. Imports hold
+ * their slot for the whole upload, so they get a lane of their own instead of starving regular writes. Saturated
+ * requests get 503 with a Retry-After header. Other paths, such as the actuator, are not limited, nor is the long-lived
+ * /stats/stream, whose subscriptions are capped by stats.live.max-subscriptions instead.
+ */
+@Component
+public class AdmissionControl {
+    private static final String SATURATED = "Сервер статистики перегружен, повторите запрос позже";
+    private final boolean enabled;
+    private final AdmissionLane writes;
+    private final AdmissionLane imports;
+    private final AdmissionLane reads;
+    private final long retryAfterSeconds;
+    private final byte[] rejectionBody;
+
+    public AdmissionControl(MeterRegistry meterRegistry,
+                            ObjectMapper objectMapper,
+                            @Value("${stats.admission.enabled:true}") boolean enabled,
+                            @Value("${stats.admission.write.max-concurrent:6}") int writeConcurrency,
+                            @Value("${stats.admission.write.max-queued:200}") int writeQueue,
+                            @Value("${stats.admission.write.queue-timeout:500ms}") Duration writeTimeout,
+                            @Value("${stats.admission.import.max-concurrent:1}") int importConcurrency,
+                            @Value("${stats.admission.import.max-queued:0}") int importQueue,
+                            @Value("${stats.admission.import.queue-timeout:1s}") Duration importTimeout,
+                            @Value("${stats.admission.read.max-concurrent:4}") int readConcurrency,
+                            @Value("${stats.admission.read.max-queued:100}") int readQueue,
+                            @Value("${stats.admission.read.queue-timeout:2s}") Duration readTimeout,
+                            @Value("${stats.admission.retry-after:1s}") Duration retryAfter)
+            throws JsonProcessingException {
+        this.enabled = enabled;
+        this.writes = new AdmissionLane("write", writeConcurrency, writeQueue, writeTimeout, meterRegistry);
+        this.imports = new AdmissionLane("import", importConcurrency, importQueue, importTimeout, meterRegistry);
+        this.reads = new AdmissionLane("read", readConcurrency, readQueue, readTimeout, meterRegistry);
+        this.retryAfterSeconds = Math.max((retryAfter.toMillis() + 999) / 1000, 1);
+        this.rejectionBody = objectMapper.writeValueAsBytes(ErrorMessage.builder().error(SATURATED).build());
+    }
+
+    /**
+     * Lane limiting the request, or null when it is not limited.
+     */
+    public AdmissionLane laneOf(String path) {
+        if (!enabled) {
+            return null;
+        }
+        if (path.equals("/hits/import")) {
+            return imports;
+        }
+        if (path.equals("/hit") || path.startsWith("/hits/")) {
+            return writes;
+        }
+        if (path.equals("/stats/stream")) {
+            return null;
+        }
+        if (path.equals("/stats") || path.startsWith("/stats/")) {
+            return reads;
+        }
+        return null;
+    }
+
+    public String retryAfter() {
+        return Long.toString(retryAfterSeconds);
+    }
+
+    public byte[] rejectionBody() {
+        return rejectionBody;
+    }
+}
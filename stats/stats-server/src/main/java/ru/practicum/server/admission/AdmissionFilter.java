@@ -0,0 +1,54 @@
+package ru.practicum.server.admission;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Holds requests of a saturated lane in its queue before they take a connection, and rejects them once the queue
+ * is full or they waited too long.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+@RequiredArgsConstructor
+@Slf4j
+public class AdmissionFilter extends OncePerRequestFilter {
+    private final AdmissionControl admission;
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        AdmissionLane lane = admission.laneOf(request.getRequestURI());
+        if (lane == null) {
+            chain.doFilter(request, response);
+            return;
+        }
+        CompletableFuture<Void> entry = lane.enter();
+        if (entry == null || !lane.await(entry)) {
+            log.debug("Rejecting {} {}: {} lane saturated", request.getMethod(), request.getRequestURI(),
+                    lane.getName());
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, admission.retryAfter());
+            response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+            response.getOutputStream().write(admission.rejectionBody());
+            return;
+        }
+        try {
+            chain.doFilter(request, response);
+        } finally {
+            lane.exit();
+        }
+    }
+}
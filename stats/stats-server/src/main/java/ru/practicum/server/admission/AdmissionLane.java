@@ -0,0 +1,139 @@
+package ru.practicum.server.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Admits at most maxConcurrent requests at a time and queues up to maxQueued more in arrival order. A request that
+ * finds the queue full or waits longer than queueTimeout is rejected, so that callers fail fast instead of piling
+ * up behind a slow database.
+ */
+public class AdmissionLane {
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueued;
+    private final Duration queueTimeout;
+    private final Deque<CompletableFuture<Void>> queued = new ArrayDeque<>();
+    private final Counter queueFullCounter;
+    private final Counter timeoutCounter;
+    private final Timer waitTimer;
+    private int active;
+
+    public AdmissionLane(String name, int maxConcurrent, int maxQueued, Duration queueTimeout,
+                         MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxConcurrent = Math.max(maxConcurrent, 1);
+        this.maxQueued = Math.max(maxQueued, 0);
+        this.queueTimeout = queueTimeout;
+        Gauge.builder("stats.admission.active", this, AdmissionLane::active)
+                .description("Requests being served")
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("stats.admission.queued", this, AdmissionLane::queued)
+                .description("Requests waiting to be served")
+                .tag("lane", name)
+                .register(meterRegistry);
+        Gauge.builder("stats.admission.saturation", this, lane -> (double) lane.active() / lane.maxConcurrent)
+                .description("Share of the concurrency limit in use")
+                .tag("lane", name)
+                .register(meterRegistry);
+        this.queueFullCounter = rejected(meterRegistry, name, "queue-full");
+        this.timeoutCounter = rejected(meterRegistry, name, "timeout");
+        this.waitTimer = Timer.builder("stats.admission.wait")
+                .description("Time admitted requests waited in the queue")
+                .tag("lane", name)
+                .register(meterRegistry);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Duration getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     * Entry that completes once the request may proceed, or null when it is rejected because the queue is full.
+     * Every admitted request must {@link #exit}.
+     */
+    public synchronized CompletableFuture<Void> enter() {
+        if (active < maxConcurrent && queued.isEmpty()) {
+            active++;
+            return CompletableFuture.completedFuture(null);
+        }
+        if (queued.size() >= maxQueued) {
+            queueFullCounter.increment();
+            return null;
+        }
+        CompletableFuture<Void> entry = new CompletableFuture<>();
+        queued.addLast(entry);
+        return entry;
+    }
+
+    /**
+     * Blocks until the entry is admitted or the queue timeout has passed.
+     */
+    public boolean await(CompletableFuture<Void> entry) {
+        long startedAt = System.nanoTime();
+        try {
+            entry.get(queueTimeout.toMillis(), TimeUnit.MILLISECONDS);
+            waitTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return !abandon(entry);
+        } catch (Exception e) {
+            return !abandon(entry);
+        }
+    }
+
+    /**
+     * Withdraws a queued entry that gave up waiting. Returns false when it was admitted meanwhile, in which case the
+     * caller holds a slot and must exit.
+     */
+    public synchronized boolean abandon(CompletableFuture<Void> entry) {
+        if (queued.remove(entry)) {
+            timeoutCounter.increment();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Hands the slot to the oldest queued request, or frees it.
+     */
+    public synchronized void exit() {
+        CompletableFuture<Void> next;
+        while ((next = queued.pollFirst()) != null) {
+            if (next.complete(null)) {
+                return;
+            }
+        }
+        active--;
+    }
+
+    private synchronized int active() {
+        return active;
+    }
+
+    private synchronized int queued() {
+        return queued.size();
+    }
+
+    private static Counter rejected(MeterRegistry meterRegistry, String lane, String reason) {
+        return Counter.builder("stats.admission.rejected")
+                .description("Requests rejected because the lane was saturated")
+                .tag("lane", lane)
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,71 @@
+package ru.practicum.server.admission;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link AdmissionFilter} for the reactive server. Queued requests wait without holding a thread.
+ */
+@Component
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+@Slf4j
+public class ReactiveAdmissionFilter implements WebFilter {
+    private static final int WAITING = 0;
+    private static final int HOLDING = 1;
+    private static final int DONE = 2;
+    private final AdmissionControl admission;
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        AdmissionLane lane = admission.laneOf(exchange.getRequest().getPath().pathWithinApplication().value());
+        if (lane == null) {
+            return chain.filter(exchange);
+        }
+        CompletableFuture<Void> entry = lane.enter();
+        if (entry == null) {
+            return reject(exchange, lane);
+        }
+        AtomicInteger state = new AtomicInteger(WAITING);
+        return Mono.fromFuture(entry)
+                .thenReturn(true)
+                .timeout(lane.getQueueTimeout(), Mono.fromSupplier(() -> !lane.abandon(entry)))
+                .flatMap(admitted -> {
+                    if (!admitted) {
+                        state.set(DONE);
+                        return reject(exchange, lane);
+                    }
+                    return state.compareAndSet(WAITING, HOLDING) ? chain.filter(exchange) : Mono.empty();
+                })
+                .doFinally(signal -> {
+                    if (state.compareAndSet(HOLDING, DONE)) {
+                        lane.exit();
+                    } else if (state.compareAndSet(WAITING, DONE) && !lane.abandon(entry)) {
+                        lane.exit();
+                    }
+                });
+    }
+
+    private Mono<Void> reject(ServerWebExchange exchange, AdmissionLane lane) {
+        log.debug("Rejecting {} {}: {} lane saturated", exchange.getRequest().getMethod(),
+                exchange.getRequest().getPath(), lane.getName());
+        ServerHttpResponse response = exchange.getResponse();
+        response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+        response.getHeaders().set(HttpHeaders.RETRY_AFTER, admission.retryAfter());
+        response.getHeaders().setContentType(MediaType.APPLICATION_JSON);
+        return response.writeWith(Mono.fromSupplier(() -> response.bufferFactory().wrap(admission.rejectionBody())));
+    }
+}
@@ -0,0 +1,157 @@
+package ru.practicum.server.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.service.PartitionManager;
+
+import javax.sql.DataSource;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Moves a database created before the stats table was partitioned and dictionary-encoded to the current schema.
+ * schema.sql only creates what is missing, so the original stats, keyed by app and uri strings and not partitioned,
+ * would make it fail. That table is copied aside and dropped, schema.sql creates the current one, the dictionaries
+ * are filled from the old strings, partitions are created for the days of the old hits and the rows are copied back
+ * with their ids. Everything runs in one transaction before schema.sql, so a failed migration leaves the old table
+ * untouched. Hits without an app, uri or timestamp, which the current schema does not allow, are not copied.
+ */
+@Component
+@Slf4j
+public class LegacySchemaMigration implements InitializingBean {
+    private static final String SCHEMA = "schema.sql";
+    private static final String LEGACY = "stats_legacy";
+    private static final int IP_BATCH_SIZE = 10000;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final String period;
+    private final int premake;
+    private final int retentionDays;
+
+    public LegacySchemaMigration(DataSource dataSource,
+                                 @Value("${stats.partition.period:day}") String period,
+                                 @Value("${stats.partition.premake:7}") int premake,
+                                 @Value("${stats.retention.days:0}") int retentionDays) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        this.period = period;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!isLegacy()) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        log.info("Migrating legacy table stats to the current schema");
+        transactionTemplate.executeWithoutResult(status -> migrate());
+        log.info("Migrated legacy table stats in {} ms", System.currentTimeMillis() - startedAt);
+    }
+
+    private boolean isLegacy() {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT to_regclass('stats') IS NOT NULL", Boolean.class);
+        if (!Boolean.TRUE.equals(exists)) {
+            return false;
+        }
+        if (hasColumn("stats", "app")) {
+            return true;
+        }
+        if (!isPartitioned("stats")) {
+            throw new IllegalStateException("Table stats is not partitioned and has no app column, " +
+                    "it cannot be migrated automatically");
+        }
+        return false;
+    }
+
+    private boolean hasColumn(String table, String column) {
+        Boolean exists = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM information_schema.columns " +
+                "WHERE table_schema = current_schema() AND table_name = ? AND column_name = ?)",
+                Boolean.class, table, column);
+        return Boolean.TRUE.equals(exists);
+    }
+
+    private boolean isPartitioned(String table) {
+        Boolean partitioned = jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM pg_partitioned_table " +
+                "WHERE partrelid = to_regclass(?))", Boolean.class, table);
+        return Boolean.TRUE.equals(partitioned);
+    }
+
+    private void migrate() {
+        jdbcTemplate.execute("CREATE TABLE " + LEGACY + " AS SELECT * FROM stats");
+        jdbcTemplate.execute("DROP TABLE stats CASCADE");
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            ScriptUtils.executeSqlScript(connection, new ClassPathResource(SCHEMA));
+            return null;
+        });
+        fillDictionary("app");
+        fillDictionary("uri");
+        copyHits();
+        jdbcTemplate.execute("DROP TABLE " + LEGACY);
+    }
+
+    private void fillDictionary(String column) {
+        int added = jdbcTemplate.update("INSERT INTO stats_" + column + "_dictionary (" + column + ") " +
+                "SELECT DISTINCT " + column + " FROM " + LEGACY + " WHERE " + column + " IS NOT NULL " +
+                "ORDER BY " + column + " ON CONFLICT DO NOTHING");
+        log.info("Added {} legacy {} values to stats_{}_dictionary", added, column, column);
+    }
+
+    /**
+     * Copies the old hits with their ids and their app, uri and ip encoded. Ips are converted the way EndpointHit
+     * stores them, through a temporary table of the distinct ones; ips that do not parse are copied as null.
+     * stats_id_seq is then moved to the largest id, so that the next block it hands out starts past the old ids.
+     */
+    private void copyHits() {
+        encodeIps();
+        new PartitionManager(jdbcTemplate, transactionTemplate, period, premake, retentionDays)
+                .createPartitions(jdbcTemplate.queryForList("SELECT DISTINCT timestamp::date FROM " + LEGACY +
+                        " WHERE timestamp IS NOT NULL", LocalDate.class));
+        int copied = jdbcTemplate.update("INSERT INTO stats (id, app_id, uri_id, ip, timestamp) " +
+                "SELECT l.id, a.id, u.id, i.address, l.timestamp FROM " + LEGACY + " AS l " +
+                "JOIN stats_app_dictionary AS a ON a.app = l.app " +
+                "JOIN stats_uri_dictionary AS u ON u.uri = l.uri " +
+                "LEFT JOIN stats_legacy_ip AS i ON i.ip = l.ip " +
+                "WHERE l.timestamp IS NOT NULL");
+        jdbcTemplate.queryForObject("SELECT setval('stats_id_seq', GREATEST(max(id), " +
+                "(SELECT last_value FROM stats_id_seq))) FROM stats", Long.class);
+        Long total = jdbcTemplate.queryForObject("SELECT count(*) FROM " + LEGACY, Long.class);
+        log.info("Copied {} legacy hits, skipped {} without app, uri or timestamp", copied,
+                total == null ? 0 : total - copied);
+    }
+
+    private void encodeIps() {
+        jdbcTemplate.execute("CREATE TEMPORARY TABLE stats_legacy_ip (ip VARCHAR(100) PRIMARY KEY, address BYTEA) " +
+                "ON COMMIT DROP");
+        IpAddressConverter converter = new IpAddressConverter();
+        List<Object[]> batch = new ArrayList<>(IP_BATCH_SIZE);
+        jdbcTemplate.query("SELECT DISTINCT ip FROM " + LEGACY + " WHERE ip IS NOT NULL", (RowCallbackHandler) rs -> {
+            String ip = rs.getString(1);
+            String normalized = IpAddressConverter.normalize(ip);
+            batch.add(new Object[]{ip, normalized == null ? null : converter.convertToDatabaseColumn(normalized)});
+            if (batch.size() == IP_BATCH_SIZE) {
+                insertIps(batch);
+            }
+        });
+        insertIps(batch);
+    }
+
+    private void insertIps(List<Object[]> batch) {
+        if (!batch.isEmpty()) {
+            jdbcTemplate.batchUpdate("INSERT INTO stats_legacy_ip (ip, address) VALUES (?, ?)", batch);
+            batch.clear();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ru.practicum.server.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.practicum.server.model.RollupGranularity;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveWebConfig implements WebFluxConfigurer {
+    /**
+     * Serves on Netty rather than on Tomcat, which is preferred while both are on the classpath.
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * Threads for the blocking JPA and JDBC calls, no more than connections in the pool. Calls beyond the queue
+     * size are rejected instead of piling up.
+     */
+    @Bean(destroyMethod = "dispose")
+    public Scheduler jdbcScheduler(@Value("${stats.reactive.jdbc-threads:10}") int threads,
+                                   @Value("${stats.reactive.jdbc-queue-size:100000}") int queueSize) {
+        return Schedulers.newBoundedElastic(threads, queueSize, "stats-jdbc");
+    }
+
+    /**
+     * Accepts bucket=minute|hour|day in any case.
+     */
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(String.class, RollupGranularity.class,
+                value -> RollupGranularity.valueOf(value.trim().toUpperCase()));
+    }
+}
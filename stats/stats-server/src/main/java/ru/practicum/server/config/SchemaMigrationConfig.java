@@ -0,0 +1,33 @@
+package ru.practicum.server.config;
+
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.boot.jdbc.init.DataSourceScriptDatabaseInitializer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@Configuration
+public class SchemaMigrationConfig {
+    /**
+     * Runs {@link LegacySchemaMigration} before schema.sql, which would fail on the legacy tables.
+     */
+    @Bean
+    public static BeanFactoryPostProcessor legacySchemaMigrationOrder() {
+        return beanFactory -> {
+            for (String name : beanFactory.getBeanNamesForType(DataSourceScriptDatabaseInitializer.class,
+                    true, false)) {
+                BeanDefinition definition = beanFactory.getBeanDefinition(name);
+                List<String> dependsOn = new ArrayList<>();
+                if (definition.getDependsOn() != null) {
+                    dependsOn.addAll(Arrays.asList(definition.getDependsOn()));
+                }
+                dependsOn.add("legacySchemaMigration");
+                definition.setDependsOn(dependsOn.toArray(String[]::new));
+            }
+        };
+    }
+}
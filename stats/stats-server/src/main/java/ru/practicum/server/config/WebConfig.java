@@ -0,0 +1,41 @@
+package ru.practicum.server.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.format.FormatterRegistry;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+import ru.practicum.server.model.RollupGranularity;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Configuration
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+public class WebConfig implements WebMvcConfigurer {
+    /**
+     * Lets error bodies of the NDJSON endpoints be written as a single JSON line instead of failing negotiation.
+     */
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        for (HttpMessageConverter<?> converter : converters) {
+            if (converter instanceof MappingJackson2HttpMessageConverter) {
+                MappingJackson2HttpMessageConverter jackson = (MappingJackson2HttpMessageConverter) converter;
+                List<MediaType> mediaTypes = new ArrayList<>(jackson.getSupportedMediaTypes());
+                mediaTypes.add(MediaType.APPLICATION_NDJSON);
+                jackson.setSupportedMediaTypes(mediaTypes);
+            }
+        }
+    }
+
+    /**
+     * Accepts bucket=minute|hour|day in any case.
+     */
+    @Override
+    public void addFormatters(FormatterRegistry registry) {
+        registry.addConverter(String.class, RollupGranularity.class,
+                value -> RollupGranularity.valueOf(value.trim().toUpperCase()));
+    }
+}
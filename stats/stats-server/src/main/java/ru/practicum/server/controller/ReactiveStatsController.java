@@ -0,0 +1,191 @@
+package ru.practicum.server.controller;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.validation.annotation.Validated;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.ImportResultDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsQueryDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.service.HitImporter;
+import ru.practicum.server.service.ReactiveStatsService;
+import ru.practicum.server.service.StatsService;
+
+import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.time.LocalDateTime;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The API of {@link StatsController} served by WebFlux, with spring.main.web-application-type=reactive.
+ */
+@RestController
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+@Slf4j
+@Validated
+public class ReactiveStatsController {
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final int IMPORT_PREFETCH = 16;
+    private static final String LIVE_EVENT = "stats";
+    private static final String HEARTBEAT = "heartbeat";
+    private final StatsService service;
+    private final ReactiveStatsService reactiveService;
+    private final HitImporter importer;
+
+    @PostMapping("/hit")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<EndpointHitDto> create(@RequestBody @Valid EndpointHitDto endpointHitDto) {
+        log.debug("Saving hit {}", endpointHitDto.getApp());
+        return reactiveService.blocking(() -> service.create(endpointHitDto));
+    }
+
+    @PostMapping("/hits/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public Mono<List<EndpointHitDto>> createAll(@RequestBody @NotEmpty @Size(max = MAX_BATCH_SIZE)
+                                                List<@Valid EndpointHitDto> endpointHitDtos) {
+        log.debug("Saving batch of {} hits", endpointHitDtos.size());
+        return reactiveService.blocking(() -> service.createAll(endpointHitDtos));
+    }
+
+    @PostMapping(value = "/hits/import", consumes = "text/csv")
+    public Mono<ImportResultDto> importCsv(@RequestBody Flux<DataBuffer> body) {
+        log.info("Importing hits from CSV");
+        return importLines(body, importer::importCsv);
+    }
+
+    @PostMapping(value = "/hits/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public Mono<ImportResultDto> importNdjson(@RequestBody Flux<DataBuffer> body) {
+        log.info("Importing hits from NDJSON");
+        return importLines(body, importer::importNdjson);
+    }
+
+    @GetMapping("/stats")
+    public Mono<List<ViewStatsDto>> get(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                        LocalDateTime start,
+                                        @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                        LocalDateTime end,
+                                        @RequestParam(required = false) List<String> uris,
+                                        @RequestParam(defaultValue = "false") boolean unique,
+                                        @RequestParam(defaultValue = "false") boolean approximate,
+                                        @RequestParam(required = false) String groupBy) {
+        log.info("Getting hits from stats service with start={}, end={}, uris={}, unique={}, approximate={}, " +
+                "groupBy={}", start, end, uris, unique, approximate, groupBy);
+        return reactiveService.blocking(() -> service.get(start, end, uris, unique, approximate, groupBy));
+    }
+
+    @PostMapping("/stats/query")
+    public Mono<List<ViewStatsDto>> query(@RequestBody @Valid StatsQueryDto query) {
+        log.info("Querying stats for {} uri ranges, unique={}, approximate={}", query.getRanges().size(),
+                query.isUnique(), query.isApproximate());
+        return reactiveService.blocking(() -> service.query(query.getRanges(), query.isUnique(),
+                query.isApproximate()));
+    }
+
+    @GetMapping("/stats/top")
+    public Mono<List<ViewStatsDto>> getTop(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                           LocalDateTime start,
+                                           @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                           LocalDateTime end,
+                                           @RequestParam(defaultValue = "10") @Positive int k) {
+        log.info("Getting top {} uris from stats service with start={}, end={}", k, start, end);
+        return reactiveService.blocking(() -> service.getTop(start, end, k));
+    }
+
+    @GetMapping("/stats/histogram")
+    public Flux<HistogramBucketDto> getHistogram(@RequestParam String uri,
+                                                 @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                                 LocalDateTime start,
+                                                 @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                                 LocalDateTime end,
+                                                 @RequestParam(defaultValue = "hour") RollupGranularity bucket) {
+        log.info("Getting {} histogram of uri={} from stats service with start={}, end={}", bucket, uri, start, end);
+        return reactiveService.getHistogram(start, end, uri, bucket);
+    }
+
+    @GetMapping("/stats/changes")
+    public Mono<StatsChangesDto> getChanges(@RequestParam(required = false) String since,
+                                            @RequestParam(defaultValue = "1000") @Positive int limit) {
+        log.info("Getting up to {} stats changes since cursor {}", limit, since);
+        return reactiveService.blocking(() -> service.getChanges(since, limit));
+    }
+
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<List<ViewStatsDto>>> live(@RequestParam(required = false) List<String> uris,
+                                                          @RequestParam(defaultValue = "false") boolean unique) {
+        log.info("Subscribing to live stats with uris={}, unique={}", uris, unique);
+        return reactiveService.live(uris, unique)
+                .map(stats -> stats.isEmpty()
+                        ? ServerSentEvent.<List<ViewStatsDto>>builder().comment(HEARTBEAT).build()
+                        : ServerSentEvent.builder(stats).event(LIVE_EVENT).build());
+    }
+
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ViewStatsDto> stream(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                     LocalDateTime start,
+                                     @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                     LocalDateTime end,
+                                     @RequestParam(required = false) List<String> uris,
+                                     @RequestParam(defaultValue = "false") boolean unique) {
+        log.info("Streaming hits from stats service with start={}, end={}, uris={}, unique={}",
+                start, end, uris, unique);
+        return reactiveService.stream(start, end, uris, unique);
+    }
+
+    @GetMapping(value = "/stats", params = "stream=true", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<ViewStatsDto> streamByFlag(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                           LocalDateTime start,
+                                           @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                           LocalDateTime end,
+                                           @RequestParam(required = false) List<String> uris,
+                                           @RequestParam(defaultValue = "false") boolean unique) {
+        return stream(start, end, uris, unique);
+    }
+
+    /**
+     * Feeds the body to the importer as a blocking stream on the stats-jdbc scheduler, so that chunks are copied
+     * while the upload is still arriving. A failed upload fails the read, so the chunk being read is not committed.
+     */
+    private Mono<ImportResultDto> importLines(Flux<DataBuffer> body, Importer target) {
+        return reactiveService.blocking(() -> {
+            try (Stream<DataBuffer> buffers = body.toStream(IMPORT_PREFETCH)) {
+                Iterator<DataBuffer> iterator = buffers.iterator();
+                return target.importLines(new SequenceInputStream(new Enumeration<>() {
+                    @Override
+                    public boolean hasMoreElements() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public InputStream nextElement() {
+                        return iterator.next().asInputStream(true);
+                    }
+                }));
+            }
+        });
+    }
+
+    private interface Importer {
+        ImportResultDto importLines(InputStream in) throws IOException;
+    }
+}
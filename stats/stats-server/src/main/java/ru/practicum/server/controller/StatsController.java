@@ -1,23 +1,52 @@
 package ru.practicum.server.controller;
 
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.AllArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.ImportResultDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.StatsQueryDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.service.HitImporter;
+import ru.practicum.server.service.LiveStats;
 import ru.practicum.server.service.StatsService;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.Positive;
+import javax.validation.constraints.Size;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.time.LocalDateTime;
 import java.util.List;
 
 @RestController()
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
 @AllArgsConstructor
 @Slf4j
+@Validated
 public class StatsController {
+    private static final int MAX_BATCH_SIZE = 10000;
+    private static final String LIVE_EVENT = "stats";
+    private static final String HEARTBEAT = "heartbeat";
     private final StatsService service;
+    private final HitImporter importer;
+    private final LiveStats liveStats;
+    private final ObjectMapper objectMapper;
 
     @PostMapping("/hit")
     @ResponseStatus(HttpStatus.CREATED)
@@ -26,12 +55,130 @@ public class StatsController {
         return service.create(endpointHitDto);
     }
 
+    @PostMapping("/hits/batch")
+    @ResponseStatus(HttpStatus.CREATED)
+    public List<EndpointHitDto> createAll(@RequestBody @NotEmpty @Size(max = MAX_BATCH_SIZE)
+                                          List<@Valid EndpointHitDto> endpointHitDtos) {
+        log.debug("Saving batch of {} hits", endpointHitDtos.size());
+        return service.createAll(endpointHitDtos);
+    }
+
+    @PostMapping(value = "/hits/import", consumes = "text/csv")
+    public ImportResultDto importCsv(HttpServletRequest request) throws IOException {
+        log.info("Importing hits from CSV");
+        return importer.importCsv(request.getInputStream());
+    }
+
+    @PostMapping(value = "/hits/import", consumes = MediaType.APPLICATION_NDJSON_VALUE)
+    public ImportResultDto importNdjson(HttpServletRequest request) throws IOException {
+        log.info("Importing hits from NDJSON");
+        return importer.importNdjson(request.getInputStream());
+    }
+
     @GetMapping("/stats")
     public List<ViewStatsDto> get(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
                                   @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
                                   @RequestParam(required = false) List<String> uris,
-                                  @RequestParam(defaultValue = "false") boolean unique) {
-        log.info("Getting hits from stats service with start={}, end={}, uris={}, unique={}", start, end, uris, unique);
-        return service.get(start, end, uris, unique);
+                                  @RequestParam(defaultValue = "false") boolean unique,
+                                  @RequestParam(defaultValue = "false") boolean approximate,
+                                  @RequestParam(required = false) String groupBy) {
+        log.info("Getting hits from stats service with start={}, end={}, uris={}, unique={}, approximate={}, " +
+                "groupBy={}", start, end, uris, unique, approximate, groupBy);
+        return service.get(start, end, uris, unique, approximate, groupBy);
+    }
+
+    @PostMapping("/stats/query")
+    public List<ViewStatsDto> query(@RequestBody @Valid StatsQueryDto query) {
+        log.info("Querying stats for {} uri ranges, unique={}, approximate={}", query.getRanges().size(),
+                query.isUnique(), query.isApproximate());
+        return service.query(query.getRanges(), query.isUnique(), query.isApproximate());
+    }
+
+    @GetMapping("/stats/top")
+    public List<ViewStatsDto> getTop(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                                     @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                                     @RequestParam(defaultValue = "10") @Positive int k) {
+        log.info("Getting top {} uris from stats service with start={}, end={}", k, start, end);
+        return service.getTop(start, end, k);
+    }
+
+    @GetMapping("/stats/histogram")
+    public List<HistogramBucketDto> getHistogram(@RequestParam String uri,
+                                                 @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                                 LocalDateTime start,
+                                                 @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss")
+                                                 LocalDateTime end,
+                                                 @RequestParam(defaultValue = "hour") RollupGranularity bucket) {
+        log.info("Getting {} histogram of uri={} from stats service with start={}, end={}", bucket, uri, start, end);
+        return service.getHistogram(start, end, uri, bucket);
+    }
+
+    @GetMapping("/stats/changes")
+    public StatsChangesDto getChanges(@RequestParam(required = false) String since,
+                                      @RequestParam(defaultValue = "1000") @Positive int limit) {
+        log.info("Getting up to {} stats changes since cursor {}", limit, since);
+        return service.getChanges(since, limit);
+    }
+
+    /**
+     * Server-sent events with the lifetime counts of the uris, sent first in full and then as they change.
+     */
+    @GetMapping(value = "/stats/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter live(@RequestParam(required = false) List<String> uris,
+                           @RequestParam(defaultValue = "false") boolean unique) {
+        log.info("Subscribing to live stats with uris={}, unique={}", uris, unique);
+        SseEmitter emitter = new SseEmitter(0L);
+        LiveStats.Subscription subscription = liveStats.subscribe(uris, unique, stats -> {
+            try {
+                emitter.send(stats.isEmpty()
+                        ? SseEmitter.event().comment(HEARTBEAT)
+                        : SseEmitter.event().name(LIVE_EVENT).data(stats, MediaType.APPLICATION_JSON));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        emitter.onCompletion(subscription::close);
+        emitter.onError(error -> subscription.close());
+        return emitter;
+    }
+
+    @GetMapping(value = "/stats", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public void stream(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                       @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                       @RequestParam(required = false) List<String> uris,
+                       @RequestParam(defaultValue = "false") boolean unique,
+                       HttpServletResponse response) throws IOException {
+        log.info("Streaming hits from stats service with start={}, end={}, uris={}, unique={}",
+                start, end, uris, unique);
+        writeNdjson(start, end, uris, unique, response);
+    }
+
+    @GetMapping(value = "/stats", params = "stream=true")
+    public void streamByFlag(@RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime start,
+                             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd HH:mm:ss") LocalDateTime end,
+                             @RequestParam(required = false) List<String> uris,
+                             @RequestParam(defaultValue = "false") boolean unique,
+                             HttpServletResponse response) throws IOException {
+        stream(start, end, uris, unique, response);
+    }
+
+    private void writeNdjson(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                             HttpServletResponse response) throws IOException {
+        ObjectWriter writer = objectMapper.writerFor(ViewStatsDto.class);
+        ServletOutputStream out = response.getOutputStream();
+        response.setContentType(MediaType.APPLICATION_NDJSON_VALUE);
+        try {
+            service.stream(start, end, uris, unique, viewStats -> {
+                try {
+                    out.write(writer.writeValueAsBytes(viewStats));
+                    out.write('\n');
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        out.flush();
     }
-}
\ No newline at end of file
+}
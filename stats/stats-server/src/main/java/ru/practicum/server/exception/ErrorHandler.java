@@ -7,6 +7,10 @@ import org.springframework.web.bind.MissingServletRequestParameterException;
 import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestControllerAdvice;
+import org.springframework.web.method.annotation.MethodArgumentTypeMismatchException;
+import org.springframework.web.server.ServerWebInputException;
+
+import javax.validation.ConstraintViolationException;
 
 @RestControllerAdvice
 @Slf4j
@@ -25,6 +29,27 @@ public class ErrorHandler {
         return ErrorMessage.builder().error(e.getMessage()).build();
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleArgumentTypeMismatch(final MethodArgumentTypeMismatchException e) {
+        log.warn(e.getMessage());
+        return ErrorMessage.builder().error(e.getMessage()).build();
+    }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleServerWebInput(final ServerWebInputException e) {
+        log.warn(e.getMessage());
+        return ErrorMessage.builder().error(e.getMessage()).build();
+    }
+
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.BAD_REQUEST)
+    public ErrorMessage handleConstraintViolation(final ConstraintViolationException e) {
+        log.warn(e.getMessage());
+        return ErrorMessage.builder().error(e.getMessage()).build();
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.BAD_REQUEST)
     public ErrorMessage handleDateExceptional(final DataException e) {
@@ -32,6 +57,13 @@ public class ErrorHandler {
         return ErrorMessage.builder().error(e.getMessage()).build();
     }
 
+    @ExceptionHandler
+    @ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+    public ErrorMessage handleOverloaded(final OverloadedException e) {
+        log.warn(e.getMessage());
+        return ErrorMessage.builder().error(e.getMessage()).build();
+    }
+
     @ExceptionHandler
     @ResponseStatus(HttpStatus.INTERNAL_SERVER_ERROR)
     public ErrorMessage handleThrowable(final Throwable e) {
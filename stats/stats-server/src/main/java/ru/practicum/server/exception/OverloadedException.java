@@ -0,0 +1,7 @@
+package ru.practicum.server.exception;
+
+public class OverloadedException extends RuntimeException {
+    public OverloadedException(final String message) {
+        super(message);
+    }
+}
@@ -3,6 +3,10 @@ package ru.practicum.server.mapper;
 import ru.practicum.dto.EndpointHitDto;
 import ru.practicum.server.model.EndpointHit;
 
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.stream.Collectors;
+
 public class EndpointHitMapper {
     public static EndpointHitDto toEndpointHitDto(EndpointHit endpointHit) {
         return EndpointHitDto.builder()
@@ -11,6 +15,7 @@ public class EndpointHitMapper {
                 .uri(endpointHit.getUri())
                 .ip(endpointHit.getIp())
                 .timestamp(endpointHit.getTimestamp())
+                .hitId(endpointHit.getHitId())
                 .build();
     }
 
@@ -19,7 +24,20 @@ public class EndpointHitMapper {
                 .app(endpointHitDto.getApp())
                 .uri(endpointHitDto.getUri())
                 .ip(endpointHitDto.getIp())
-                .timestamp(endpointHitDto.getTimestamp())
+                .timestamp(endpointHitDto.getTimestamp() != null ? endpointHitDto.getTimestamp() : LocalDateTime.now())
+                .hitId(endpointHitDto.getHitId())
                 .build();
     }
+
+    public static List<EndpointHit> listToEndpointHit(List<EndpointHitDto> list) {
+        return list.stream()
+                .map(EndpointHitMapper::toEndpointHit)
+                .collect(Collectors.toList());
+    }
+
+    public static List<EndpointHitDto> listToDto(List<EndpointHit> list) {
+        return list.stream()
+                .map(EndpointHitMapper::toEndpointHitDto)
+                .collect(Collectors.toList());
+    }
 }
@@ -0,0 +1,23 @@
+package ru.practicum.server.mapper;
+
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.server.model.HistogramBucket;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class HistogramBucketMapper {
+    public static HistogramBucketDto toHistogramBucketDto(HistogramBucket bucket) {
+        return HistogramBucketDto.builder()
+                .start(bucket.getStart())
+                .hits(bucket.getHits())
+                .uniqueHits(bucket.getUniqueHits())
+                .build();
+    }
+
+    public static List<HistogramBucketDto> listToDto(List<HistogramBucket> list) {
+        return list.stream()
+                .map(HistogramBucketMapper::toHistogramBucketDto)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,29 @@
+package ru.practicum.server.mapper;
+
+import ru.practicum.dto.StatsChangeDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.server.model.StatsChange;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+public class StatsChangeMapper {
+    public static StatsChangeDto toStatsChangeDto(StatsChange change) {
+        return StatsChangeDto.builder()
+                .app(change.getApp())
+                .uri(change.getUri())
+                .hits(change.getHits())
+                .uniqueHits(change.getUniqueHits())
+                .build();
+    }
+
+    public static StatsChangesDto toStatsChangesDto(List<StatsChange> changes, String cursor, boolean hasMore) {
+        return StatsChangesDto.builder()
+                .changes(changes.stream()
+                        .map(StatsChangeMapper::toStatsChangeDto)
+                        .collect(Collectors.toList()))
+                .cursor(cursor)
+                .hasMore(hasMore)
+                .build();
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name = "stats_app_dictionary")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class AppDictionaryEntry {
+    @Id
+    private Integer id;
+    @Column(name = "app")
+    private String app;
+}
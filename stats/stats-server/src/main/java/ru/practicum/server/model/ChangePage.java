@@ -0,0 +1,16 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.util.List;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class ChangePage {
+    private List<HitChange> changes;
+    private String cursor;
+    private boolean hasMore;
+}
@@ -4,8 +4,9 @@ import lombok.*;
 
 import javax.persistence.*;
 import java.time.LocalDateTime;
+import java.util.UUID;
 
-import static javax.persistence.GenerationType.IDENTITY;
+import static javax.persistence.GenerationType.SEQUENCE;
 
 @Entity
 @Table(name = "stats")
@@ -15,15 +16,31 @@ import static javax.persistence.GenerationType.IDENTITY;
 @NoArgsConstructor
 @AllArgsConstructor
 public class EndpointHit {
+    public static final int ID_ALLOCATION_SIZE = 50;
     @Id
-    @GeneratedValue(strategy = IDENTITY)
+    @GeneratedValue(strategy = SEQUENCE, generator = "stats_id_seq")
+    @SequenceGenerator(name = "stats_id_seq", sequenceName = "stats_id_seq",
+            allocationSize = ID_ALLOCATION_SIZE)
     private Long id;
-    @Column(name = "app")
+    @Transient
     private String app;
-    @Column(name = "uri")
+    @Transient
     private String uri;
+    @Column(name = "app_id")
+    private Integer appId;
+    @Column(name = "uri_id")
+    private Integer uriId;
     @Column(name = "ip")
+    @Convert(converter = IpAddressConverter.class)
     private String ip;
     @Column(name = "timestamp")
     private LocalDateTime timestamp;
+    /**
+     * Identical hits stored in this row, more than one when repeats were debounced into it.
+     */
+    @Column(name = "hits")
+    @Builder.Default
+    private Integer hits = 1;
+    @Transient
+    private UUID hitId;
 }
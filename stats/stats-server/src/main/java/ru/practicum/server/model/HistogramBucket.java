@@ -0,0 +1,16 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HistogramBucket {
+    private LocalDateTime start;
+    private Long hits;
+    private Long uniqueHits;
+}
@@ -0,0 +1,28 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDate;
+
+@Entity
+@Table(name = "stats_bitmap")
+@IdClass(HitBitmapId.class)
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitBitmap {
+    @Id
+    @Column(name = "app_id")
+    private Integer appId;
+    @Id
+    @Column(name = "uri_id")
+    private Integer uriId;
+    @Id
+    @Column(name = "day")
+    private LocalDate day;
+    @Column(name = "bitmap")
+    private byte[] bitmap;
+}
@@ -0,0 +1,17 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+
+@Getter
+@Setter
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitBitmapId implements Serializable {
+    private Integer appId;
+    private Integer uriId;
+    private LocalDate day;
+}
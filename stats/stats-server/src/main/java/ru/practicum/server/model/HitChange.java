@@ -0,0 +1,18 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+/**
+ * Hits and new unique ips of one (app, uri) recorded by an ingest transaction, or summed over a page of the feed.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitChange {
+    private Integer appId;
+    private Integer uriId;
+    private Long hits;
+    private Long uniqueHits;
+}
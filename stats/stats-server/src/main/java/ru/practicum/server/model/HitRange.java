@@ -0,0 +1,20 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Half-open [from, to) slice of a query, read from the rollups of the given granularity or from raw hits when the
+ * granularity is null.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitRange {
+    private RollupGranularity granularity;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
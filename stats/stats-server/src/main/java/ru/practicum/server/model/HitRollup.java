@@ -0,0 +1,32 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+@Entity
+@Table(name = "stats_rollup")
+@IdClass(HitRollupId.class)
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitRollup {
+    @Id
+    @Enumerated(EnumType.STRING)
+    @Column(name = "granularity")
+    private RollupGranularity granularity;
+    @Id
+    @Column(name = "app_id")
+    private Integer appId;
+    @Id
+    @Column(name = "uri_id")
+    private Integer uriId;
+    @Id
+    @Column(name = "bucket")
+    private LocalDateTime bucket;
+    @Column(name = "hits")
+    private Long hits;
+}
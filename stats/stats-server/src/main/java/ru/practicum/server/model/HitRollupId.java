@@ -0,0 +1,18 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+
+@Getter
+@Setter
+@EqualsAndHashCode
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitRollupId implements Serializable {
+    private RollupGranularity granularity;
+    private Integer appId;
+    private Integer uriId;
+    private LocalDateTime bucket;
+}
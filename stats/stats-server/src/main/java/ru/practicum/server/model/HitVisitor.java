@@ -0,0 +1,14 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class HitVisitor {
+    private Integer appId;
+    private Integer uriId;
+    private String ip;
+}
@@ -0,0 +1,90 @@
+package ru.practicum.server.model;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+
+/**
+ * Stores an ip as its 4- or 16-byte network address instead of text.
+ */
+@Converter
+public class IpAddressConverter implements AttributeConverter<String, byte[]> {
+    @Override
+    public byte[] convertToDatabaseColumn(String ip) {
+        if (ip == null) {
+            return null;
+        }
+        byte[] address = toBytes(ip);
+        if (address == null) {
+            throw new IllegalArgumentException("Invalid ip address: " + ip);
+        }
+        return address;
+    }
+
+    @Override
+    public String convertToEntityAttribute(byte[] address) {
+        if (address == null) {
+            return null;
+        }
+        if (address.length == 4) {
+            return (address[0] & 0xFF) + "." + (address[1] & 0xFF) + "." + (address[2] & 0xFF) + "."
+                    + (address[3] & 0xFF);
+        }
+        try {
+            return InetAddress.getByAddress(address).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Invalid ip address length: " + address.length, e);
+        }
+    }
+
+    /**
+     * Canonical text form of the ip as it reads back from the database, or null if it is not an ip address.
+     */
+    public static String normalize(String ip) {
+        byte[] address = ip == null ? null : toBytes(ip);
+        return address == null ? null : new IpAddressConverter().convertToEntityAttribute(address);
+    }
+
+    /**
+     * A dotted-quad IPv4 address as its 32-bit value, or -1 if ip is not one.
+     */
+    public static long parseIpv4(String ip) {
+        long value = 0;
+        int octets = 0;
+        int octet = -1;
+        for (int i = 0; i <= ip.length(); i++) {
+            char c = i < ip.length() ? ip.charAt(i) : '.';
+            if (c == '.') {
+                if (octet < 0 || ++octets > 4) {
+                    return -1;
+                }
+                value = (value << 8) | octet;
+                octet = -1;
+            } else if (c >= '0' && c <= '9') {
+                octet = (octet < 0 ? 0 : octet * 10) + (c - '0');
+                if (octet > 255) {
+                    return -1;
+                }
+            } else {
+                return -1;
+            }
+        }
+        return octets == 4 ? value : -1;
+    }
+
+    private static byte[] toBytes(String ip) {
+        long ipv4 = parseIpv4(ip);
+        if (ipv4 >= 0) {
+            return new byte[]{(byte) (ipv4 >>> 24), (byte) (ipv4 >>> 16), (byte) (ipv4 >>> 8), (byte) ipv4};
+        }
+        if (ip.indexOf(':') < 0) {
+            return null;
+        }
+        try {
+            return InetAddress.getByName(ip).getAddress();
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name = "stats_ip_dictionary")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class IpDictionaryEntry {
+    @Id
+    private Long id;
+    @Column(name = "ip")
+    private String ip;
+}
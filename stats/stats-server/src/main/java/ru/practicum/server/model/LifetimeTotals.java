@@ -0,0 +1,20 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Counts per (app, uri) key of the uris answered from stats_total, and the uris whose window does not hold all of
+ * their hits and have to be counted the usual way.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class LifetimeTotals {
+    private Map<Long, Long> totals;
+    private Set<Integer> uncoveredUriIds;
+}
@@ -0,0 +1,13 @@
+package ru.practicum.server.model;
+
+import java.time.LocalDateTime;
+
+public interface MinuteHits {
+    Integer getAppId();
+
+    Integer getUriId();
+
+    LocalDateTime getMinute();
+
+    Long getHits();
+}
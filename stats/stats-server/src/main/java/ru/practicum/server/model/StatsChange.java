@@ -0,0 +1,15 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class StatsChange {
+    private String app;
+    private String uri;
+    private Long hits;
+    private Long uniqueHits;
+}
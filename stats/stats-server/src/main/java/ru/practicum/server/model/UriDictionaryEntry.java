@@ -0,0 +1,19 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import javax.persistence.*;
+
+@Entity
+@Table(name = "stats_uri_dictionary")
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UriDictionaryEntry {
+    @Id
+    private Integer id;
+    @Column(name = "uri")
+    private String uri;
+}
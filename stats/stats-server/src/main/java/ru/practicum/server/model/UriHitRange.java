@@ -0,0 +1,19 @@
+package ru.practicum.server.model;
+
+import lombok.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * Half-open [from, to) window of hits on one uri.
+ */
+@Getter
+@Setter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class UriHitRange {
+    private Integer uriId;
+    private LocalDateTime from;
+    private LocalDateTime to;
+}
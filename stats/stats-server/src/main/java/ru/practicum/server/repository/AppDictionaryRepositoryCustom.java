@@ -0,0 +1,14 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.AppDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface AppDictionaryRepositoryCustom {
+    void insertAllIfAbsent(Collection<String> apps);
+
+    List<AppDictionaryEntry> findAllByAppIn(Collection<String> apps);
+
+    List<AppDictionaryEntry> findAllByIdIn(Collection<Integer> ids);
+}
@@ -0,0 +1,41 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.AppDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RequiredArgsConstructor
+public class AppDictionaryRepositoryCustomImpl implements AppDictionaryRepositoryCustom {
+    private static final String INSERT = "INSERT INTO stats_app_dictionary (app) VALUES (?) ON CONFLICT (app) DO NOTHING";
+    private static final RowMapper<AppDictionaryEntry> MAPPER = (rs, rowNum) -> AppDictionaryEntry.builder()
+            .id(rs.getInt("id"))
+            .app(rs.getString("app"))
+            .build();
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAllIfAbsent(Collection<String> apps) {
+        List<Object[]> rows = apps.stream()
+                .sorted()
+                .map(app -> new Object[]{app})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    @Override
+    public List<AppDictionaryEntry> findAllByAppIn(Collection<String> apps) {
+        return jdbcTemplate.query("SELECT id, app FROM stats_app_dictionary WHERE app = ANY(?)", MAPPER,
+                (Object) apps.toArray(String[]::new));
+    }
+
+    @Override
+    public List<AppDictionaryEntry> findAllByIdIn(Collection<Integer> ids) {
+        return jdbcTemplate.query("SELECT id, app FROM stats_app_dictionary WHERE id = ANY(?)", MAPPER,
+                (Object) ids.toArray(Integer[]::new));
+    }
+}
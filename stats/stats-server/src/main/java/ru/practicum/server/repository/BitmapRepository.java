@@ -0,0 +1,8 @@
+package ru.practicum.server.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.server.model.HitBitmap;
+import ru.practicum.server.model.HitBitmapId;
+
+public interface BitmapRepository extends JpaRepository<HitBitmap, HitBitmapId>, BitmapRepositoryCustom {
+}
@@ -0,0 +1,33 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.HitBitmap;
+import ru.practicum.server.model.HitBitmapId;
+import ru.practicum.server.model.UriHitRange;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface BitmapRepositoryCustom {
+    void insertAllIfAbsent(Collection<HitBitmapId> ids, byte[] bitmap);
+
+    /**
+     * Stored bitmaps of exactly these ids, locked in the order given so that concurrent batches sorted the same way
+     * never wait on each other in a cycle.
+     */
+    List<HitBitmap> findAllForUpdate(List<HitBitmapId> ids);
+
+    void updateAll(Collection<HitBitmap> bitmaps);
+
+    /**
+     * Bitmaps of the days in [from, to), of every uri when uriIds is null, read through a cursor: the stream must be
+     * closed and consumed inside a transaction.
+     */
+    Stream<HitBitmap> findAllInRange(LocalDate from, LocalDate to, List<Integer> uriIds);
+
+    /**
+     * Bitmaps of the days starting in each uri's own window.
+     */
+    List<HitBitmap> findAllInRanges(List<UriHitRange> ranges);
+}
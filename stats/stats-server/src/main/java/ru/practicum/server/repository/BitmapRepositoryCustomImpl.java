@@ -0,0 +1,99 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.HitBitmap;
+import ru.practicum.server.model.HitBitmapId;
+import ru.practicum.server.model.UriHitRange;
+
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+public class BitmapRepositoryCustomImpl implements BitmapRepositoryCustom {
+    private static final String INSERT = "INSERT INTO stats_bitmap (app_id, uri_id, day, bitmap) " +
+            "VALUES (?, ?, ?, ?) " +
+            "ON CONFLICT (app_id, uri_id, day) DO NOTHING";
+    private static final String FIND_FOR_UPDATE = "SELECT b.app_id, b.uri_id, b.day, b.bitmap FROM stats_bitmap AS b " +
+            "JOIN unnest(?, ?, ?) WITH ORDINALITY AS k(app_id, uri_id, day, position) " +
+            "ON b.app_id = k.app_id AND b.uri_id = k.uri_id AND b.day = k.day " +
+            "ORDER BY k.position FOR UPDATE OF b";
+    private static final String UPDATE = "UPDATE stats_bitmap SET bitmap = ? WHERE app_id = ? AND uri_id = ? AND day = ?";
+    private static final RowMapper<HitBitmap> MAPPER = (rs, rowNum) -> HitBitmap.builder()
+            .appId(rs.getInt("app_id"))
+            .uriId(rs.getInt("uri_id"))
+            .day(rs.getDate("day").toLocalDate())
+            .bitmap(rs.getBytes("bitmap"))
+            .build();
+    private static final int FETCH_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAllIfAbsent(Collection<HitBitmapId> ids, byte[] bitmap) {
+        List<Object[]> rows = ids.stream()
+                .map(id -> new Object[]{id.getAppId(), id.getUriId(), Date.valueOf(id.getDay()), bitmap})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    @Override
+    public List<HitBitmap> findAllForUpdate(List<HitBitmapId> ids) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_FOR_UPDATE);
+            statement.setArray(1, connection.createArrayOf("integer", ids.stream()
+                    .map(HitBitmapId::getAppId).toArray()));
+            statement.setArray(2, connection.createArrayOf("integer", ids.stream()
+                    .map(HitBitmapId::getUriId).toArray()));
+            statement.setArray(3, connection.createArrayOf("date", ids.stream()
+                    .map(id -> Date.valueOf(id.getDay())).toArray()));
+            return statement;
+        }, MAPPER);
+    }
+
+    @Override
+    public void updateAll(Collection<HitBitmap> bitmaps) {
+        List<Object[]> rows = bitmaps.stream()
+                .map(bitmap -> new Object[]{bitmap.getBitmap(), bitmap.getAppId(), bitmap.getUriId(),
+                        Date.valueOf(bitmap.getDay())})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(UPDATE, rows);
+    }
+
+    @Override
+    public Stream<HitBitmap> findAllInRange(LocalDate from, LocalDate to, List<Integer> uriIds) {
+        return jdbcTemplate.queryForStream(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT app_id, uri_id, day, bitmap " +
+                    "FROM stats_bitmap WHERE day >= ? AND day < ?" + (uriIds == null ? "" : " AND uri_id = ANY(?)"));
+            statement.setDate(1, Date.valueOf(from));
+            statement.setDate(2, Date.valueOf(to));
+            if (uriIds != null) {
+                statement.setArray(3, connection.createArrayOf("integer", uriIds.toArray()));
+            }
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, MAPPER);
+    }
+
+    @Override
+    public List<HitBitmap> findAllInRanges(List<UriHitRange> ranges) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT b.app_id, b.uri_id, b.day, b.bitmap " +
+                    "FROM stats_bitmap AS b JOIN unnest(?, ?, ?) AS q(uri_id, from_time, to_time) " +
+                    "ON b.uri_id = q.uri_id AND b.day >= q.from_time AND b.day < q.to_time");
+            statement.setArray(1, connection.createArrayOf("integer", ranges.stream()
+                    .map(UriHitRange::getUriId).toArray()));
+            statement.setArray(2, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getFrom())).toArray()));
+            statement.setArray(3, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getTo())).toArray()));
+            return statement;
+        }, MAPPER);
+    }
+}
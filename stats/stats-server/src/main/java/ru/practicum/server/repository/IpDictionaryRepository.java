@@ -0,0 +1,7 @@
+package ru.practicum.server.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.server.model.IpDictionaryEntry;
+
+public interface IpDictionaryRepository extends JpaRepository<IpDictionaryEntry, Long>, IpDictionaryRepositoryCustom {
+}
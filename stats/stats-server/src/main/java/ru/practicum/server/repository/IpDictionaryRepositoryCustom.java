@@ -0,0 +1,14 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.IpDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface IpDictionaryRepositoryCustom {
+    void insertAllIfAbsent(Collection<String> ips);
+
+    List<IpDictionaryEntry> findAllByIpIn(Collection<String> ips);
+
+    List<IpDictionaryEntry> findAllByIdIn(Collection<Long> ids);
+}
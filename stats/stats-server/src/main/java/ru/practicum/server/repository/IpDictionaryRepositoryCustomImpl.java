@@ -0,0 +1,41 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.IpDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RequiredArgsConstructor
+public class IpDictionaryRepositoryCustomImpl implements IpDictionaryRepositoryCustom {
+    private static final String INSERT = "INSERT INTO stats_ip_dictionary (ip) VALUES (?) ON CONFLICT (ip) DO NOTHING";
+    private static final RowMapper<IpDictionaryEntry> MAPPER = (rs, rowNum) -> IpDictionaryEntry.builder()
+            .id(rs.getLong("id"))
+            .ip(rs.getString("ip"))
+            .build();
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAllIfAbsent(Collection<String> ips) {
+        List<Object[]> rows = ips.stream()
+                .sorted()
+                .map(ip -> new Object[]{ip})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    @Override
+    public List<IpDictionaryEntry> findAllByIpIn(Collection<String> ips) {
+        return jdbcTemplate.query("SELECT id, ip FROM stats_ip_dictionary WHERE ip = ANY(?)", MAPPER,
+                (Object) ips.toArray(String[]::new));
+    }
+
+    @Override
+    public List<IpDictionaryEntry> findAllByIdIn(Collection<Long> ids) {
+        return jdbcTemplate.query("SELECT id, ip FROM stats_ip_dictionary WHERE id = ANY(?)", MAPPER,
+                (Object) ids.toArray(Long[]::new));
+    }
+}
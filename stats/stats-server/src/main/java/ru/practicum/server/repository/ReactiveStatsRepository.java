@@ -0,0 +1,135 @@
+package ru.practicum.server.repository;
+
+import io.r2dbc.pool.ConnectionPool;
+import io.r2dbc.pool.ConnectionPoolConfiguration;
+import io.r2dbc.spi.ConnectionFactories;
+import io.r2dbc.spi.ConnectionFactoryOptions;
+import io.r2dbc.spi.Option;
+import io.r2dbc.spi.Row;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.r2dbc.core.DatabaseClient;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import ru.practicum.server.model.HistogramBucket;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.ViewStats;
+
+import javax.annotation.PreDestroy;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * R2DBC reads of the reactive server: the same queries as {@link StatsRepositoryCustomImpl}, with rows emitted as
+ * the database sends them and no thread held while waiting. Connects to the database of spring.datasource.url
+ * through its own pool.
+ */
+@Repository
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+public class ReactiveStatsRepository {
+    private static final int FETCH_SIZE = 1000;
+    private static final Map<String, String> URL_OPTIONS = Map.of(
+            "sslmode", "sslMode",
+            "sslrootcert", "sslRootCert",
+            "currentSchema", "schema",
+            "ApplicationName", "applicationName");
+    private final ConnectionPool pool;
+    private final DatabaseClient client;
+
+    public ReactiveStatsRepository(@Value("${spring.datasource.url}") String jdbcUrl,
+                                   @Value("${spring.datasource.username}") String username,
+                                   @Value("${spring.datasource.password}") String password,
+                                   @Value("${stats.reactive.r2dbc.pool-size:20}") int poolSize) {
+        ConnectionFactoryOptions.Builder options = ConnectionFactoryOptions.parse(r2dbcUrl(jdbcUrl)).mutate()
+                .option(ConnectionFactoryOptions.USER, username)
+                .option(ConnectionFactoryOptions.PASSWORD, password);
+        urlOptions(jdbcUrl).forEach((name, value) -> options.option(Option.valueOf(name), value));
+        this.pool = new ConnectionPool(ConnectionPoolConfiguration.builder(ConnectionFactories.get(options.build()))
+                .maxSize(poolSize)
+                .build());
+        this.client = DatabaseClient.create(pool);
+    }
+
+    @PreDestroy
+    public void close() {
+        pool.dispose();
+    }
+
+    public Flux<ViewStats> streamHits(List<HitRange> ranges, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        String sql = StatsRepositoryCustomImpl.hitsQuery(ranges, uriIds, params);
+        return sql == null ? Flux.empty() : query(sql, params).map(ReactiveStatsRepository::toViewStats).all();
+    }
+
+    public Flux<ViewStats> streamUniqueHits(HitRange range, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        return query(StatsRepositoryCustomImpl.uniqueHitsQuery(range, uriIds, params), params)
+                .map(ReactiveStatsRepository::toViewStats)
+                .all();
+    }
+
+    public Flux<HistogramBucket> findHistogram(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                               LocalDateTime compactedTo, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        return query(StatsRepositoryCustomImpl.histogramQuery(granularity, from, to, compactedTo, uriIds, params),
+                params)
+                .map(row -> new HistogramBucket(row.get("bucket", LocalDateTime.class),
+                        row.get("hits", Long.class), row.get("unique_hits", Long.class)))
+                .all();
+    }
+
+    private DatabaseClient.GenericExecuteSpec query(String sql, Map<String, Object> params) {
+        DatabaseClient.GenericExecuteSpec spec = client.sql(sql)
+                .filter(statement -> statement.fetchSize(FETCH_SIZE));
+        for (Map.Entry<String, Object> param : params.entrySet()) {
+            spec = spec.bind(param.getKey(), param.getValue());
+        }
+        return spec;
+    }
+
+    private static ViewStats toViewStats(Row row) {
+        return new ViewStats(row.get("app", String.class), row.get("uri", String.class),
+                row.get("hits", Long.class));
+    }
+
+    /**
+     * jdbc:postgresql://host:port/db?options as an r2dbc:postgresql://host:port/db url; the pool is the explicit
+     * {@link ConnectionPool} above, not a second one from an r2dbc:pool: url.
+     */
+    private static String r2dbcUrl(String jdbcUrl) {
+        String url = jdbcUrl.startsWith("jdbc:") ? jdbcUrl.substring("jdbc:".length()) : jdbcUrl;
+        int options = url.indexOf('?');
+        return "r2dbc:" + (options < 0 ? url : url.substring(0, options));
+    }
+
+    /**
+     * Options of the jdbc url under their r2dbc-postgresql names. Any other option fails startup rather than being
+     * dropped, as the reactive reads would otherwise connect differently from the JDBC ones.
+     */
+    private static Map<String, String> urlOptions(String jdbcUrl) {
+        Map<String, String> options = new HashMap<>();
+        int start = jdbcUrl.indexOf('?');
+        if (start < 0) {
+            return options;
+        }
+        for (String pair : jdbcUrl.substring(start + 1).split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            String option = URL_OPTIONS.get(name);
+            if (option == null) {
+                throw new IllegalStateException("Unsupported spring.datasource.url option for R2DBC: " + name);
+            }
+            options.put(option, value);
+        }
+        return options;
+    }
+}
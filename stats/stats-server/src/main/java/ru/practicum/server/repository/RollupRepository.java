@@ -0,0 +1,8 @@
+package ru.practicum.server.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.server.model.HitRollup;
+import ru.practicum.server.model.HitRollupId;
+
+public interface RollupRepository extends JpaRepository<HitRollup, HitRollupId>, RollupRepositoryCustom {
+}
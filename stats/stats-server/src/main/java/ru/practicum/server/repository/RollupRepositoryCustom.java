@@ -0,0 +1,24 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+public interface RollupRepositoryCustom {
+    void incrementAll(Map<HitRollupId, Long> counts);
+
+    /**
+     * Rollup hits per (app, uri) over the buckets starting in [from, to), of every uri when uriIds is null.
+     */
+    List<HitCount> sumHits(RollupGranularity granularity, LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    /**
+     * Rollup hits per (app, uri) with each uri summed over the buckets starting in its own window.
+     */
+    List<HitCount> sumHits(RollupGranularity granularity, List<UriHitRange> ranges);
+}
@@ -0,0 +1,71 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@RequiredArgsConstructor
+public class RollupRepositoryCustomImpl implements RollupRepositoryCustom {
+    private static final String INCREMENT = "INSERT INTO stats_rollup (granularity, app_id, uri_id, bucket, hits) " +
+            "VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (granularity, app_id, uri_id, bucket) DO UPDATE SET hits = stats_rollup.hits + EXCLUDED.hits";
+    private static final RowMapper<HitCount> HIT_COUNT_MAPPER = (rs, rowNum) -> new HitCount(rs.getInt("app_id"),
+            rs.getInt("uri_id"), rs.getLong("hits"));
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void incrementAll(Map<HitRollupId, Long> counts) {
+        List<Object[]> rows = counts.entrySet().stream()
+                .map(e -> new Object[]{e.getKey().getGranularity().name(), e.getKey().getAppId(), e.getKey().getUriId(),
+                        Timestamp.valueOf(e.getKey().getBucket()), e.getValue()})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INCREMENT, rows);
+    }
+
+    @Override
+    public List<HitCount> sumHits(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                  List<Integer> uriIds) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT app_id, uri_id, sum(hits) AS hits " +
+                    "FROM stats_rollup WHERE granularity = ? AND bucket >= ? AND bucket < ?" +
+                    (uriIds == null ? "" : " AND uri_id = ANY(?)") + " GROUP BY app_id, uri_id");
+            statement.setString(1, granularity.name());
+            statement.setTimestamp(2, Timestamp.valueOf(from));
+            statement.setTimestamp(3, Timestamp.valueOf(to));
+            if (uriIds != null) {
+                statement.setArray(4, connection.createArrayOf("integer", uriIds.toArray()));
+            }
+            return statement;
+        }, HIT_COUNT_MAPPER);
+    }
+
+    @Override
+    public List<HitCount> sumHits(RollupGranularity granularity, List<UriHitRange> ranges) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT r.app_id, r.uri_id, " +
+                    "sum(r.hits) AS hits FROM stats_rollup AS r " +
+                    "JOIN unnest(?, ?, ?) AS q(uri_id, from_time, to_time) " +
+                    "ON r.uri_id = q.uri_id AND r.bucket >= q.from_time AND r.bucket < q.to_time " +
+                    "WHERE r.granularity = ? GROUP BY r.app_id, r.uri_id");
+            statement.setArray(1, connection.createArrayOf("integer", ranges.stream()
+                    .map(UriHitRange::getUriId).toArray()));
+            statement.setArray(2, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getFrom())).toArray()));
+            statement.setArray(3, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getTo())).toArray()));
+            statement.setString(4, granularity.name());
+            return statement;
+        }, HIT_COUNT_MAPPER);
+    }
+}
@@ -0,0 +1,8 @@
+package ru.practicum.server.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.HitSketch;
+
+public interface SketchRepository extends JpaRepository<HitSketch, HitRollupId>, SketchRepositoryCustom {
+}
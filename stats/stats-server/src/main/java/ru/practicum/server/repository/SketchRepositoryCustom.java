@@ -0,0 +1,35 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.HitSketch;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Stream;
+
+public interface SketchRepositoryCustom {
+    void insertAllIfAbsent(Collection<HitRollupId> ids, byte[] sketch);
+
+    /**
+     * Stored sketches of exactly these ids, locked in the order given so that concurrent batches sorted the same way
+     * never wait on each other in a cycle.
+     */
+    List<HitSketch> findAllForUpdate(List<HitRollupId> ids);
+
+    void updateAll(Collection<HitSketch> sketches);
+
+    /**
+     * Sketches of the buckets starting in [from, to), of every uri when uriIds is null, read through a cursor: the
+     * stream must be closed and consumed inside a transaction.
+     */
+    Stream<HitSketch> findAllInRange(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                     List<Integer> uriIds);
+
+    /**
+     * Sketches of the buckets starting in each uri's own window.
+     */
+    List<HitSketch> findAllInRanges(RollupGranularity granularity, List<UriHitRange> ranges);
+}
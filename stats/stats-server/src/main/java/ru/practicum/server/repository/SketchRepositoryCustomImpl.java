@@ -0,0 +1,112 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.HitSketch;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+@RequiredArgsConstructor
+public class SketchRepositoryCustomImpl implements SketchRepositoryCustom {
+    private static final String INSERT = "INSERT INTO stats_sketch (granularity, app_id, uri_id, bucket, sketch) " +
+            "VALUES (?, ?, ?, ?, ?) " +
+            "ON CONFLICT (granularity, app_id, uri_id, bucket) DO NOTHING";
+    private static final String FIND_FOR_UPDATE = "SELECT s.granularity, s.app_id, s.uri_id, s.bucket, s.sketch " +
+            "FROM stats_sketch AS s " +
+            "JOIN unnest(?, ?, ?, ?) WITH ORDINALITY AS k(granularity, app_id, uri_id, bucket, position) " +
+            "ON s.granularity = k.granularity AND s.app_id = k.app_id AND s.uri_id = k.uri_id " +
+            "AND s.bucket = k.bucket " +
+            "ORDER BY k.position FOR UPDATE OF s";
+    private static final String UPDATE = "UPDATE stats_sketch SET sketch = ? " +
+            "WHERE granularity = ? AND app_id = ? AND uri_id = ? AND bucket = ?";
+    private static final RowMapper<HitSketch> MAPPER = (rs, rowNum) -> HitSketch.builder()
+            .granularity(RollupGranularity.valueOf(rs.getString("granularity")))
+            .appId(rs.getInt("app_id"))
+            .uriId(rs.getInt("uri_id"))
+            .bucket(rs.getTimestamp("bucket").toLocalDateTime())
+            .sketch(rs.getBytes("sketch"))
+            .build();
+    private static final int FETCH_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAllIfAbsent(Collection<HitRollupId> ids, byte[] sketch) {
+        List<Object[]> rows = ids.stream()
+                .map(id -> new Object[]{id.getGranularity().name(), id.getAppId(), id.getUriId(),
+                        Timestamp.valueOf(id.getBucket()), sketch})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    @Override
+    public List<HitSketch> findAllForUpdate(List<HitRollupId> ids) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_FOR_UPDATE);
+            statement.setArray(1, connection.createArrayOf("varchar", ids.stream()
+                    .map(id -> id.getGranularity().name()).toArray()));
+            statement.setArray(2, connection.createArrayOf("integer", ids.stream()
+                    .map(HitRollupId::getAppId).toArray()));
+            statement.setArray(3, connection.createArrayOf("integer", ids.stream()
+                    .map(HitRollupId::getUriId).toArray()));
+            statement.setArray(4, connection.createArrayOf("timestamp", ids.stream()
+                    .map(id -> Timestamp.valueOf(id.getBucket())).toArray()));
+            return statement;
+        }, MAPPER);
+    }
+
+    @Override
+    public void updateAll(Collection<HitSketch> sketches) {
+        List<Object[]> rows = sketches.stream()
+                .map(sketch -> new Object[]{sketch.getSketch(), sketch.getGranularity().name(), sketch.getAppId(),
+                        sketch.getUriId(), Timestamp.valueOf(sketch.getBucket())})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(UPDATE, rows);
+    }
+
+    @Override
+    public Stream<HitSketch> findAllInRange(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                            List<Integer> uriIds) {
+        return jdbcTemplate.queryForStream(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT granularity, app_id, uri_id, bucket, " +
+                    "sketch FROM stats_sketch WHERE granularity = ? AND bucket >= ? AND bucket < ?" +
+                    (uriIds == null ? "" : " AND uri_id = ANY(?)"));
+            statement.setString(1, granularity.name());
+            statement.setTimestamp(2, Timestamp.valueOf(from));
+            statement.setTimestamp(3, Timestamp.valueOf(to));
+            if (uriIds != null) {
+                statement.setArray(4, connection.createArrayOf("integer", uriIds.toArray()));
+            }
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, MAPPER);
+    }
+
+    @Override
+    public List<HitSketch> findAllInRanges(RollupGranularity granularity, List<UriHitRange> ranges) {
+        return jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT s.granularity, s.app_id, s.uri_id, " +
+                    "s.bucket, s.sketch FROM stats_sketch AS s " +
+                    "JOIN unnest(?, ?, ?) AS q(uri_id, from_time, to_time) " +
+                    "ON s.uri_id = q.uri_id AND s.bucket >= q.from_time AND s.bucket < q.to_time " +
+                    "WHERE s.granularity = ?");
+            statement.setArray(1, connection.createArrayOf("integer", ranges.stream()
+                    .map(UriHitRange::getUriId).toArray()));
+            statement.setArray(2, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getFrom())).toArray()));
+            statement.setArray(3, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getTo())).toArray()));
+            statement.setString(4, granularity.name());
+            return statement;
+        }, MAPPER);
+    }
+}
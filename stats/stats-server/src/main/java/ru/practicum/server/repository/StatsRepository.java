@@ -4,29 +4,17 @@ import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import ru.practicum.server.model.EndpointHit;
-import ru.practicum.server.model.ViewStats;
+import ru.practicum.server.model.MinuteHits;
 
 import java.time.LocalDateTime;
 import java.util.List;
 
-public interface StatsRepository extends JpaRepository<EndpointHit, Long> {
-    @Query("SELECT new ru.practicum.server.model.ViewStats(eh.app, eh.uri, count (eh.ip)) " +
-            "FROM EndpointHit AS eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end " +
-            "AND :uris IS NULL OR eh.uri IN :uris " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY count (eh.ip) DESC ")
-    List<ViewStats> getAllEndpointHitsByUriIn(@Param("start") LocalDateTime start,
-                                              @Param("end") LocalDateTime end,
-                                              @Param("uris") List<String> uris);
-
-    @Query("SELECT new ru.practicum.server.model.ViewStats(eh.app, eh.uri, count (DISTINCT eh.ip)) " +
-            "FROM EndpointHit AS eh " +
-            "WHERE eh.timestamp BETWEEN :start AND :end " +
-            "AND :uris IS NULL OR eh.uri IN :uris " +
-            "GROUP BY eh.app, eh.uri " +
-            "ORDER BY count (DISTINCT eh.ip) DESC ")
-    List<ViewStats> getAllUniqueEndpointHitByUriIn(@Param("start") LocalDateTime start,
-                                                   @Param("end") LocalDateTime end,
-                                                   @Param("uris") List<String> uris);
+public interface StatsRepository extends JpaRepository<EndpointHit, Long>, StatsRepositoryCustom {
+    @Query(value = "SELECT app_id AS appId, uri_id AS uriId, date_trunc('minute', timestamp) AS minute, " +
+            "sum(hits) AS hits " +
+            "FROM stats " +
+            "WHERE timestamp >= :from " +
+            "GROUP BY app_id, uri_id, date_trunc('minute', timestamp)",
+            nativeQuery = true)
+    List<MinuteHits> countHitsByMinuteSince(@Param("from") LocalDateTime from);
 }
@@ -0,0 +1,57 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.HistogramBucket;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.HitVisitor;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.model.ViewStats;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+public interface StatsRepositoryCustom {
+    /**
+     * Sums hits over the ranges in one grouped query and hands the rows to the consumer, most hit first, as the
+     * cursor yields them. Must run inside a transaction for the cursor to be used.
+     */
+    void streamHits(List<HitRange> ranges, List<Integer> uriIds, Consumer<ViewStats> consumer);
+
+    /**
+     * The k (app, uri) with the most hits summed over the ranges, most hit first, selected by the database.
+     */
+    List<ViewStats> findTop(List<HitRange> ranges, int k);
+
+    void streamUniqueHits(HitRange range, List<Integer> uriIds, Consumer<ViewStats> consumer);
+
+    /**
+     * Hits and unique ips of the uris per bucket of the given granularity over [from, to), counted in a single
+     * grouped scan. Days before compactedTo, which must then be DAY buckets, add their DAY rollup hits and have no
+     * unique ips. Buckets without hits are left out.
+     */
+    List<HistogramBucket> findHistogram(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                        LocalDateTime compactedTo, List<Integer> uriIds);
+
+    List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    /**
+     * Distinct (app, uri, ip) of the hits in [from, to). Hits without an ip, such as legacy rows whose ip did not
+     * parse, are left out, as they are not counted as unique.
+     */
+    List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    /**
+     * Hits, or distinct ips when unique, per (app, uri) with each uri counted over its own window, in one scan of
+     * stats joined to the windows.
+     */
+    List<HitCount> countHits(List<UriHitRange> ranges, boolean unique);
+
+    /**
+     * Distinct (app, uri, ip) of the hits with an ip, with each uri read over its own window.
+     */
+    List<HitVisitor> findVisitors(List<UriHitRange> ranges);
+}
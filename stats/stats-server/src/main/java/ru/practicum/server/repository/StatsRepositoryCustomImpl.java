@@ -0,0 +1,235 @@
+package ru.practicum.server.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.core.SqlTypeValue;
+import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.core.support.AbstractSqlTypeValue;
+import ru.practicum.server.model.HistogramBucket;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.HitVisitor;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.model.ViewStats;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+public class StatsRepositoryCustomImpl implements StatsRepositoryCustom {
+    private static final int FETCH_SIZE = 1000;
+    private static final IpAddressConverter IP_CONVERTER = new IpAddressConverter();
+    private static final String NAMED = "SELECT a.app, u.uri, t.hits FROM (%s) AS t " +
+            "JOIN stats_app_dictionary AS a ON a.id = t.app_id " +
+            "JOIN stats_uri_dictionary AS u ON u.id = t.uri_id " +
+            "ORDER BY t.hits DESC";
+    private static final RowMapper<HitCount> HIT_COUNT_MAPPER = (rs, rowNum) -> new HitCount(rs.getInt("app_id"),
+            rs.getInt("uri_id"), rs.getLong("hits"));
+    private static final RowMapper<HitVisitor> VISITOR_MAPPER = (rs, rowNum) -> new HitVisitor(rs.getInt("app_id"),
+            rs.getInt("uri_id"), IP_CONVERTER.convertToEntityAttribute(rs.getBytes("ip")));
+    private final NamedParameterJdbcTemplate jdbcTemplate;
+
+    public StatsRepositoryCustomImpl(JdbcTemplate jdbcTemplate) {
+        JdbcTemplate cursorTemplate = new JdbcTemplate(jdbcTemplate.getDataSource());
+        cursorTemplate.setFetchSize(FETCH_SIZE);
+        this.jdbcTemplate = new NamedParameterJdbcTemplate(cursorTemplate);
+    }
+
+    @Override
+    public void streamHits(List<HitRange> ranges, List<Integer> uriIds, Consumer<ViewStats> consumer) {
+        Map<String, Object> params = new HashMap<>();
+        String hits = hitsQuery(ranges, uriIds, params);
+        if (hits != null) {
+            query(hits, new MapSqlParameterSource(params), consumer);
+        }
+    }
+
+    @Override
+    public List<ViewStats> findTop(List<HitRange> ranges, int k) {
+        Map<String, Object> params = new HashMap<>();
+        String sums = sumsQuery(ranges, null, params);
+        if (sums == null) {
+            return List.of();
+        }
+        params.put("limit", k);
+        List<ViewStats> top = new ArrayList<>();
+        query(String.format(NAMED, sums + " ORDER BY hits DESC LIMIT :limit"), new MapSqlParameterSource(params),
+                top::add);
+        return top;
+    }
+
+    @Override
+    public void streamUniqueHits(HitRange range, List<Integer> uriIds, Consumer<ViewStats> consumer) {
+        Map<String, Object> params = new HashMap<>();
+        query(uniqueHitsQuery(range, uriIds, params), new MapSqlParameterSource(params), consumer);
+    }
+
+    @Override
+    public List<HistogramBucket> findHistogram(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                               LocalDateTime compactedTo, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        return jdbcTemplate.query(histogramQuery(granularity, from, to, compactedTo, uriIds, params),
+                new MapSqlParameterSource(params),
+                (rs, rowNum) -> new HistogramBucket(rs.getTimestamp("bucket").toLocalDateTime(),
+                        rs.getLong("hits"), rs.getObject("unique_hits", Long.class)));
+    }
+
+    @Override
+    public List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return countInRange("sum(hits)", from, to, uriIds);
+    }
+
+    @Override
+    public List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return countInRange("count(DISTINCT ip)", from, to, uriIds);
+    }
+
+    @Override
+    public List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        return jdbcTemplate.query("SELECT DISTINCT app_id, uri_id, ip FROM stats " +
+                rangeFilter(from, to, uriIds, params) + " AND ip IS NOT NULL", params, VISITOR_MAPPER);
+    }
+
+    @Override
+    public List<HitCount> countHits(List<UriHitRange> ranges, boolean unique) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query("SELECT s.app_id, s.uri_id, " + (unique ? "count(DISTINCT s.ip)" : "sum(s.hits)") +
+                        " AS hits FROM " + windows(ranges, params) + " JOIN stats AS s ON s.uri_id = q.uri_id " +
+                        "AND s.timestamp >= q.from_time AND s.timestamp < q.to_time " +
+                        "GROUP BY s.app_id, s.uri_id", params, HIT_COUNT_MAPPER);
+    }
+
+    @Override
+    public List<HitVisitor> findVisitors(List<UriHitRange> ranges) {
+        MapSqlParameterSource params = new MapSqlParameterSource();
+        return jdbcTemplate.query("SELECT DISTINCT s.app_id, s.uri_id, s.ip FROM " + windows(ranges, params) +
+                        " JOIN stats AS s ON s.uri_id = q.uri_id " +
+                        "AND s.timestamp >= q.from_time AND s.timestamp < q.to_time WHERE s.ip IS NOT NULL", params,
+                VISITOR_MAPPER);
+    }
+
+    /**
+     * Hits per app and uri summed over the raw and rollup ranges, ordered by hits, or null without ranges. The
+     * parameters are added to params; the query is shared with {@link ReactiveStatsRepository}.
+     */
+    static String hitsQuery(List<HitRange> ranges, List<Integer> uriIds, Map<String, Object> params) {
+        String sums = sumsQuery(ranges, uriIds, params);
+        return sums == null ? null : String.format(NAMED, sums);
+    }
+
+    private static String sumsQuery(List<HitRange> ranges, List<Integer> uriIds, Map<String, Object> params) {
+        putUriIds(uriIds, params);
+        List<String> parts = new ArrayList<>();
+        for (int i = 0; i < ranges.size(); i++) {
+            HitRange range = ranges.get(i);
+            params.put("from" + i, range.getFrom());
+            params.put("to" + i, range.getTo());
+            if (range.getGranularity() == null) {
+                parts.add("SELECT app_id, uri_id, sum(hits) AS hits FROM stats " +
+                        "WHERE timestamp >= :from" + i + " AND timestamp < :to" + i + uriFilter(uriIds) +
+                        " GROUP BY app_id, uri_id");
+            } else {
+                params.put("granularity" + i, range.getGranularity().name());
+                parts.add("SELECT app_id, uri_id, hits FROM stats_rollup " +
+                        "WHERE granularity = :granularity" + i +
+                        " AND bucket >= :from" + i + " AND bucket < :to" + i + uriFilter(uriIds));
+            }
+        }
+        if (parts.isEmpty()) {
+            return null;
+        }
+        return "SELECT app_id, uri_id, sum(hits) AS hits FROM (" + String.join(" UNION ALL ", parts) +
+                ") AS r GROUP BY app_id, uri_id";
+    }
+
+    static String uniqueHitsQuery(HitRange range, List<Integer> uriIds, Map<String, Object> params) {
+        putUriIds(uriIds, params);
+        params.put("from", range.getFrom());
+        params.put("to", range.getTo());
+        return String.format(NAMED, "SELECT app_id, uri_id, count(DISTINCT ip) AS hits FROM stats " +
+                "WHERE timestamp >= :from AND timestamp < :to" + uriFilter(uriIds) + " GROUP BY app_id, uri_id");
+    }
+
+    static String histogramQuery(RollupGranularity granularity, LocalDateTime from, LocalDateTime to,
+                                 LocalDateTime compactedTo, List<Integer> uriIds, Map<String, Object> params) {
+        putUriIds(uriIds, params);
+        params.put("unit", granularity.name().toLowerCase());
+        params.put("from", from);
+        params.put("to", to);
+        String raw = "SELECT date_trunc(:unit, timestamp) AS bucket, sum(hits) AS hits, " +
+                "count(DISTINCT ip) AS unique_hits FROM stats " +
+                "WHERE uri_id = ANY(:uriIds) AND timestamp >= :from AND timestamp < :to GROUP BY bucket";
+        if (compactedTo == null || !from.isBefore(compactedTo)) {
+            return raw + " ORDER BY bucket";
+        }
+        params.put("day", RollupGranularity.DAY.name());
+        params.put("compactedTo", compactedTo);
+        return "SELECT bucket, CAST(sum(hits) AS bigint) AS hits, CASE WHEN bool_and(unique_hits IS NOT NULL) " +
+                "THEN CAST(sum(unique_hits) AS bigint) END AS unique_hits FROM (" + raw + " UNION ALL " +
+                "SELECT bucket, sum(hits), NULL FROM stats_rollup WHERE granularity = :day " +
+                "AND uri_id = ANY(:uriIds) AND bucket >= :from AND bucket < :compactedTo AND hits > 0 " +
+                "GROUP BY bucket) AS h GROUP BY bucket ORDER BY bucket";
+    }
+
+    private void query(String sql, MapSqlParameterSource params, Consumer<ViewStats> consumer) {
+        jdbcTemplate.query(sql, params, (RowCallbackHandler) rs -> consumer.accept(
+                new ViewStats(rs.getString("app"), rs.getString("uri"), rs.getLong("hits"))));
+    }
+
+    private List<HitCount> countInRange(String count, LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        Map<String, Object> params = new HashMap<>();
+        return jdbcTemplate.query("SELECT app_id, uri_id, " + count + " AS hits FROM stats " +
+                rangeFilter(from, to, uriIds, params) + " GROUP BY app_id, uri_id", params, HIT_COUNT_MAPPER);
+    }
+
+    private static String rangeFilter(LocalDateTime from, LocalDateTime to, List<Integer> uriIds,
+                                      Map<String, Object> params) {
+        putUriIds(uriIds, params);
+        params.put("from", from);
+        params.put("to", to);
+        return "WHERE timestamp >= :from AND timestamp < :to" + uriFilter(uriIds);
+    }
+
+    /**
+     * The ranges unnested from three array parameters into q(uri_id, from_time, to_time) to join stats against, so
+     * that any number of ranges binds as three parameters.
+     */
+    private static String windows(List<UriHitRange> ranges, MapSqlParameterSource params) {
+        params.addValue("uriIds", ranges.stream().map(UriHitRange::getUriId).toArray(Integer[]::new));
+        params.addValue("froms", timestamps(ranges.stream().map(UriHitRange::getFrom)));
+        params.addValue("tos", timestamps(ranges.stream().map(UriHitRange::getTo)));
+        return "unnest(:uriIds, :froms, :tos) AS q(uri_id, from_time, to_time)";
+    }
+
+    private static SqlTypeValue timestamps(Stream<LocalDateTime> times) {
+        Object[] values = times.map(Timestamp::valueOf).toArray();
+        return new AbstractSqlTypeValue() {
+            @Override
+            protected Object createTypeValue(Connection connection, int sqlType, String typeName) throws SQLException {
+                return connection.createArrayOf("timestamp", values);
+            }
+        };
+    }
+
+    private static void putUriIds(List<Integer> uriIds, Map<String, Object> params) {
+        if (uriIds != null) {
+            params.put("uriIds", uriIds.toArray(Integer[]::new));
+        }
+    }
+
+    private static String uriFilter(List<Integer> uriIds) {
+        return uriIds == null ? "" : " AND uri_id = ANY(:uriIds)";
+    }
+}
@@ -0,0 +1,8 @@
+package ru.practicum.server.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import ru.practicum.server.model.UriDictionaryEntry;
+
+public interface UriDictionaryRepository extends JpaRepository<UriDictionaryEntry, Integer>,
+        UriDictionaryRepositoryCustom {
+}
@@ -0,0 +1,14 @@
+package ru.practicum.server.repository;
+
+import ru.practicum.server.model.UriDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+
+public interface UriDictionaryRepositoryCustom {
+    void insertAllIfAbsent(Collection<String> uris);
+
+    List<UriDictionaryEntry> findAllByUriIn(Collection<String> uris);
+
+    List<UriDictionaryEntry> findAllByIdIn(Collection<Integer> ids);
+}
@@ -0,0 +1,41 @@
+package ru.practicum.server.repository;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import ru.practicum.server.model.UriDictionaryEntry;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@RequiredArgsConstructor
+public class UriDictionaryRepositoryCustomImpl implements UriDictionaryRepositoryCustom {
+    private static final String INSERT = "INSERT INTO stats_uri_dictionary (uri) VALUES (?) ON CONFLICT (uri) DO NOTHING";
+    private static final RowMapper<UriDictionaryEntry> MAPPER = (rs, rowNum) -> UriDictionaryEntry.builder()
+            .id(rs.getInt("id"))
+            .uri(rs.getString("uri"))
+            .build();
+    private final JdbcTemplate jdbcTemplate;
+
+    @Override
+    public void insertAllIfAbsent(Collection<String> uris) {
+        List<Object[]> rows = uris.stream()
+                .sorted()
+                .map(uri -> new Object[]{uri})
+                .collect(Collectors.toList());
+        jdbcTemplate.batchUpdate(INSERT, rows);
+    }
+
+    @Override
+    public List<UriDictionaryEntry> findAllByUriIn(Collection<String> uris) {
+        return jdbcTemplate.query("SELECT id, uri FROM stats_uri_dictionary WHERE uri = ANY(?)", MAPPER,
+                (Object) uris.toArray(String[]::new));
+    }
+
+    @Override
+    public List<UriDictionaryEntry> findAllByIdIn(Collection<Integer> ids) {
+        return jdbcTemplate.query("SELECT id, uri FROM stats_uri_dictionary WHERE id = ANY(?)", MAPPER,
+                (Object) ids.toArray(Integer[]::new));
+    }
+}
@@ -0,0 +1,269 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.*;
+import ru.practicum.server.repository.BitmapRepository;
+import ru.practicum.server.repository.StatsRepository;
+import ru.practicum.server.sketch.IpBitmaps;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Exact unique hits from one bitmap of encoded ips per (app, uri, day), written at ingest. Days before covered_from
+ * in stats_bitmap_coverage, which starts at the day after the first run, may hold hits ingested before the engine
+ * was enabled: they are counted from the raw hits while a background job fills their bitmaps from stats one day at
+ * a time, newest first, down to the oldest raw day. Adding ips to a bitmap twice changes nothing, so the job may
+ * overlap ingest and be resumed after a restart. To rebuild the bitmaps, truncate stats_bitmap, delete the coverage
+ * row and restart.
+ */
+@Service
+@ConditionalOnProperty(name = "stats.unique.engine", havingValue = "bitmap")
+@RequiredArgsConstructor
+@Slf4j
+public class BitmapService implements HitListener, UniqueCounter {
+    private static final Comparator<HitBitmapId> LOCK_ORDER = Comparator.comparing(HitBitmapId::getAppId)
+            .thenComparing(HitBitmapId::getUriId)
+            .thenComparing(HitBitmapId::getDay);
+    private static final byte[] EMPTY = IpBitmaps.toBytes(new Roaring64NavigableMap());
+    private static final int COVERAGE_ID = 1;
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+    private final BitmapRepository bitmapRepository;
+    private final StatsRepository statsRepository;
+    private final HitStore hitStore;
+    private final IpEncoder ipEncoder;
+    private final HitCompactor compactor;
+    private final SketchService sketchService;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private volatile LocalDate coveredFrom;
+
+    @PostConstruct
+    public void loadCoverage() {
+        jdbcTemplate.update("INSERT INTO stats_bitmap_coverage (id, covered_from) " +
+                "SELECT ?, GREATEST(CURRENT_DATE, max(timestamp)::date) + 1 FROM stats ON CONFLICT (id) DO NOTHING",
+                COVERAGE_ID);
+        coveredFrom = jdbcTemplate.queryForObject("SELECT covered_from FROM stats_bitmap_coverage WHERE id = ?",
+                Date.class, COVERAGE_ID).toLocalDate();
+    }
+
+    /**
+     * Fills the bitmaps of the newest uncovered day that still has raw hits and moves covered_from back to it. One
+     * day per run, so that the other scheduled jobs are not held up; compacted days are skipped, as their ips are gone.
+     */
+    @Scheduled(fixedDelayString = "${stats.bitmap.backfill-delay-ms:1000}")
+    public void backfill() {
+        LocalDate day = coveredFrom.minusDays(1);
+        Timestamp first = jdbcTemplate.queryForObject("SELECT min(timestamp) FROM stats", Timestamp.class);
+        if (first == null || day.isBefore(first.toLocalDateTime().toLocalDate())
+                || compactor.isCompacted(day.atStartOfDay())) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        int bitmaps = backfillDay(day);
+        if (jdbcTemplate.update("UPDATE stats_bitmap_coverage SET covered_from = ? WHERE id = ? AND covered_from > ?",
+                Date.valueOf(day), COVERAGE_ID, Date.valueOf(day)) > 0) {
+            coveredFrom = day;
+        } else {
+            loadCoverage();
+        }
+        log.info("Backfilled {} bitmaps of {} from stats in {} ms", bitmaps, day,
+                System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        Map<String, Long> codes = ipEncoder.encodeAll(hits.stream()
+                .map(EndpointHit::getIp)
+                .collect(Collectors.toSet()));
+        Map<HitBitmapId, Roaring64NavigableMap> additions = new TreeMap<>(LOCK_ORDER);
+        for (EndpointHit hit : hits) {
+            additions.computeIfAbsent(new HitBitmapId(hit.getAppId(), hit.getUriId(), hit.getTimestamp().toLocalDate()),
+                    k -> new Roaring64NavigableMap()).addLong(codes.get(hit.getIp()));
+        }
+        merge(additions);
+    }
+
+    /**
+     * Exact when every day of the range is either covered, or still has its raw hits. A range reaching a compacted
+     * day that is not covered is estimated from the sketches instead, as the ips of that day are gone.
+     */
+    @Override
+    public Map<Long, Long> countUniqueHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        LocalDate covered = coveredFrom;
+        if (start.toLocalDate().isBefore(covered) && compactor.isCompacted(start)) {
+            return sketchService.countUniqueHits(start, end, uriIds);
+        }
+        Map<Long, Roaring64NavigableMap> unions = new HashMap<>();
+        Map<Long, Set<String>> unknownIps = new HashMap<>();
+        TimeBuckets.split(start, TimeBuckets.exclusiveEnd(end), List.of(RollupGranularity.DAY),
+                new TimeBuckets.RangeVisitor() {
+                    @Override
+                    public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                        LocalDateTime coveredStart = covered.atStartOfDay();
+                        if (from.isBefore(coveredStart)) {
+                            raw(from, to.isBefore(coveredStart) ? to : coveredStart);
+                        }
+                        if (to.isAfter(coveredStart)) {
+                            fromBitmaps(from.isAfter(coveredStart) ? from : coveredStart, to);
+                        }
+                    }
+
+                    private void fromBitmaps(LocalDateTime from, LocalDateTime to) {
+                        try (Stream<HitBitmap> stream = bitmapRepository.findAllInRange(from.toLocalDate(),
+                                to.toLocalDate(), uriIds)) {
+                            stream.forEach(hitBitmap -> union(unions, hitBitmap.getAppId(), hitBitmap.getUriId())
+                                    .or(IpBitmaps.fromBytes(hitBitmap.getBitmap())));
+                        }
+                    }
+
+                    @Override
+                    public void raw(LocalDateTime from, LocalDateTime to) {
+                        addVisitors(findVisitors(from, to, uriIds), unions, unknownIps);
+                    }
+                });
+        return cardinalities(unions, unknownIps);
+    }
+
+    /**
+     * Each uri counted over its own window like {@link #countUniqueHits(LocalDateTime, LocalDateTime, List)}: whole
+     * covered days from the bitmaps, the edges and uncovered days from raw hits, each in one query for all windows.
+     */
+    @Override
+    public Map<Long, Long> countUniqueHits(List<UriHitRange> ranges) {
+        LocalDate covered = coveredFrom;
+        LocalDateTime coveredStart = covered.atStartOfDay();
+        List<UriHitRange> estimated = new ArrayList<>();
+        List<UriHitRange> days = new ArrayList<>();
+        List<UriHitRange> edges = new ArrayList<>();
+        for (UriHitRange range : ranges) {
+            if (range.getFrom().toLocalDate().isBefore(covered) && compactor.isCompacted(range.getFrom())) {
+                estimated.add(range);
+                continue;
+            }
+            TimeBuckets.split(range.getFrom(), range.getTo(), List.of(RollupGranularity.DAY),
+                    new TimeBuckets.RangeVisitor() {
+                        @Override
+                        public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                            if (from.isBefore(coveredStart)) {
+                                raw(from, to.isBefore(coveredStart) ? to : coveredStart);
+                            }
+                            if (to.isAfter(coveredStart)) {
+                                days.add(new UriHitRange(range.getUriId(), from.isAfter(coveredStart) ? from
+                                        : coveredStart, to));
+                            }
+                        }
+
+                        @Override
+                        public void raw(LocalDateTime from, LocalDateTime to) {
+                            edges.add(new UriHitRange(range.getUriId(), from, to));
+                        }
+                    });
+        }
+        Map<Long, Roaring64NavigableMap> unions = new HashMap<>();
+        Map<Long, Set<String>> unknownIps = new HashMap<>();
+        if (!days.isEmpty()) {
+            bitmapRepository.findAllInRanges(days).forEach(hitBitmap -> union(unions, hitBitmap.getAppId(),
+                    hitBitmap.getUriId()).or(IpBitmaps.fromBytes(hitBitmap.getBitmap())));
+        }
+        if (!edges.isEmpty()) {
+            addVisitors(statsRepository.findVisitors(edges).stream()
+                    .filter(visitor -> visitor.getIp() != null)
+                    .collect(Collectors.toList()), unions, unknownIps);
+        }
+        Map<Long, Long> totals = cardinalities(unions, unknownIps);
+        if (!estimated.isEmpty()) {
+            totals.putAll(sketchService.countUniqueHits(estimated));
+        }
+        return totals;
+    }
+
+    /**
+     * ORs the ips of one day of raw hits into its bitmaps, a batch of (app, uri) keys per transaction so that ingest
+     * is not kept waiting on the locked rows.
+     */
+    private int backfillDay(LocalDate day) {
+        List<HitVisitor> visitors = findVisitors(day.atStartOfDay(), day.plusDays(1).atStartOfDay(), null);
+        Map<String, Long> codes = ipEncoder.encodeAll(visitors.stream()
+                .map(HitVisitor::getIp)
+                .collect(Collectors.toSet()));
+        Map<HitBitmapId, Roaring64NavigableMap> additions = new TreeMap<>(LOCK_ORDER);
+        for (HitVisitor visitor : visitors) {
+            additions.computeIfAbsent(new HitBitmapId(visitor.getAppId(), visitor.getUriId(), day),
+                    k -> new Roaring64NavigableMap()).addLong(codes.get(visitor.getIp()));
+        }
+        List<HitBitmapId> ids = new ArrayList<>(additions.keySet());
+        for (int i = 0; i < ids.size(); i += BACKFILL_BATCH_SIZE) {
+            Map<HitBitmapId, Roaring64NavigableMap> batch = new TreeMap<>(LOCK_ORDER);
+            ids.subList(i, Math.min(i + BACKFILL_BATCH_SIZE, ids.size()))
+                    .forEach(id -> batch.put(id, additions.get(id)));
+            transactionTemplate.executeWithoutResult(status -> merge(batch));
+        }
+        return ids.size();
+    }
+
+    /**
+     * Visitors of the raw hits with an ip, as hits without one are not counted as unique.
+     */
+    private List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return hitStore.findVisitors(from, to, uriIds).stream()
+                .filter(visitor -> visitor.getIp() != null)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Adds the visitors' ips to the unions by their codes. Ips that were never encoded are not in any bitmap, so
+     * they are collected as strings.
+     */
+    private void addVisitors(List<HitVisitor> visitors, Map<Long, Roaring64NavigableMap> unions,
+                             Map<Long, Set<String>> unknownIps) {
+        Map<String, Long> codes = ipEncoder.lookupAll(visitors.stream()
+                .map(HitVisitor::getIp)
+                .collect(Collectors.toSet()));
+        for (HitVisitor visitor : visitors) {
+            Long code = codes.get(visitor.getIp());
+            if (code != null) {
+                union(unions, visitor.getAppId(), visitor.getUriId()).addLong(code);
+            } else {
+                unknownIps.computeIfAbsent(HitDictionary.key(visitor.getAppId(), visitor.getUriId()),
+                        k -> new HashSet<>()).add(visitor.getIp());
+            }
+        }
+    }
+
+    private void merge(Map<HitBitmapId, Roaring64NavigableMap> additions) {
+        bitmapRepository.insertAllIfAbsent(additions.keySet(), EMPTY);
+        List<HitBitmap> bitmaps = bitmapRepository.findAllForUpdate(new ArrayList<>(additions.keySet()));
+        for (HitBitmap hitBitmap : bitmaps) {
+            Roaring64NavigableMap bitmap = IpBitmaps.fromBytes(hitBitmap.getBitmap());
+            bitmap.or(additions.get(new HitBitmapId(hitBitmap.getAppId(), hitBitmap.getUriId(), hitBitmap.getDay())));
+            hitBitmap.setBitmap(IpBitmaps.toBytes(bitmap));
+        }
+        bitmapRepository.updateAll(bitmaps);
+    }
+
+    private static Map<Long, Long> cardinalities(Map<Long, Roaring64NavigableMap> unions,
+                                                 Map<Long, Set<String>> unknownIps) {
+        Map<Long, Long> totals = new HashMap<>();
+        unions.forEach((key, union) -> totals.put(key, union.getLongCardinality()));
+        unknownIps.forEach((key, ips) -> totals.merge(key, (long) ips.size(), Long::sum));
+        return totals;
+    }
+
+    private static Roaring64NavigableMap union(Map<Long, Roaring64NavigableMap> unions, int appId, int uriId) {
+        return unions.computeIfAbsent(HitDictionary.key(appId, uriId), k -> new Roaring64NavigableMap());
+    }
+}
@@ -0,0 +1,132 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.model.ChangePage;
+import ru.practicum.server.model.HitChange;
+
+import java.sql.Types;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Per-(app, uri) hits and new unique ips of every ingest transaction, appended to stats_change by
+ * {@link TotalsService} and read back after a cursor. Change ids of concurrent transactions commit out of order, so
+ * rows are ordered by (transaction id, change id) and only transactions older than every running one are read: no
+ * row can later appear before a returned cursor. Changes older than stats.changes.retention are pruned, and a
+ * consumer whose cursor is older than that misses them.
+ */
+@Component
+@Slf4j
+public class ChangeFeed {
+    private static final String INSERT = "INSERT INTO stats_change (tx, app_id, uri_id, hits, unique_hits) " +
+            "VALUES (pg_current_xact_id()::text::bigint, ?, ?, ?, ?)";
+    private static final String READ = "SELECT tx, id, app_id, uri_id, hits, unique_hits FROM stats_change " +
+            "WHERE (tx, id) > (?, ?) AND tx < pg_snapshot_xmin(pg_current_snapshot())::text::bigint " +
+            "ORDER BY tx, id LIMIT ?";
+    private static final String PRUNE = "DELETE FROM stats_change WHERE (tx, id) IN " +
+            "(SELECT tx, id FROM stats_change WHERE created < LOCALTIMESTAMP - make_interval(secs => ?) LIMIT ?)";
+    private static final String START = "0-0";
+    private static final Pattern CURSOR = Pattern.compile("\\d{1,18}-\\d{1,18}");
+    private static final int PRUNE_BATCH_SIZE = 10000;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final long retentionSeconds;
+    private final int maxPageSize;
+
+    public ChangeFeed(JdbcTemplate jdbcTemplate,
+                      @Value("${stats.changes.enabled:false}") boolean enabled,
+                      @Value("${stats.changes.retention:7d}") Duration retention,
+                      @Value("${stats.changes.max-page-size:10000}") int maxPageSize,
+                      @Value("${stats.totals.enabled:true}") boolean totalsEnabled,
+                      @Value("${stats.storage:jpa}") String storage) {
+        if (enabled && (!totalsEnabled || !"jpa".equals(storage))) {
+            throw new IllegalStateException("stats.changes.enabled requires stats.totals.enabled=true " +
+                    "and stats.storage=jpa");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.retentionSeconds = retention.getSeconds();
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Appends the changes of the current transaction. Unique hits are null when sketches are disabled.
+     */
+    public void record(List<HitChange> changes) {
+        if (!enabled || changes.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(INSERT, changes, changes.size(), (statement, change) -> {
+            statement.setInt(1, change.getAppId());
+            statement.setInt(2, change.getUriId());
+            statement.setLong(3, change.getHits());
+            statement.setObject(4, change.getUniqueHits(), Types.BIGINT);
+        });
+    }
+
+    /**
+     * Up to limit changes after the cursor, summed per (app, uri), and the cursor of the last one. Without a
+     * cursor the feed is read from its oldest retained change.
+     */
+    public ChangePage read(String since, int limit) {
+        if (!enabled) {
+            throw new DataException("Лента изменений отключена: stats.changes.enabled=false");
+        }
+        long[] cursor = parse(since == null ? START : since);
+        int pageSize = Math.min(limit, maxPageSize);
+        Map<Long, HitChange> changes = new LinkedHashMap<>();
+        long[] last = cursor.clone();
+        int[] rows = {0};
+        jdbcTemplate.query(READ, (RowCallbackHandler) rs -> {
+            int appId = rs.getInt("app_id");
+            int uriId = rs.getInt("uri_id");
+            long uniqueHits = rs.getLong("unique_hits");
+            Long unique = rs.wasNull() ? null : uniqueHits;
+            changes.merge(HitDictionary.key(appId, uriId), new HitChange(appId, uriId, rs.getLong("hits"), unique),
+                    (merged, change) -> {
+                        merged.setHits(merged.getHits() + change.getHits());
+                        merged.setUniqueHits(merged.getUniqueHits() == null || change.getUniqueHits() == null
+                                ? null : merged.getUniqueHits() + change.getUniqueHits());
+                        return merged;
+                    });
+            last[0] = rs.getLong("tx");
+            last[1] = rs.getLong("id");
+            rows[0]++;
+        }, cursor[0], cursor[1], pageSize);
+        return new ChangePage(new ArrayList<>(changes.values()), last[0] + "-" + last[1], rows[0] == pageSize);
+    }
+
+    @Scheduled(cron = "${stats.changes.prune-cron:0 15 * * * *}")
+    public void prune() {
+        if (!enabled) {
+            return;
+        }
+        long pruned = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(PRUNE, retentionSeconds, PRUNE_BATCH_SIZE);
+            pruned += deleted;
+        } while (deleted == PRUNE_BATCH_SIZE);
+        if (pruned > 0) {
+            log.info("Pruned {} changes older than {} s", pruned, retentionSeconds);
+        }
+    }
+
+    private static long[] parse(String cursor) {
+        if (!CURSOR.matcher(cursor).matches()) {
+            throw new DataException("Некорректный курсор ленты изменений: " + cursor);
+        }
+        String[] parts = cursor.split("-");
+        return new long[]{Long.parseLong(parts[0]), Long.parseLong(parts[1])};
+    }
+}
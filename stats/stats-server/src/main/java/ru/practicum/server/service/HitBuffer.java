@@ -0,0 +1,244 @@
+package ru.practicum.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.EndpointHit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Queue of hits written by a single flusher thread in batches. A batch whose write fails is kept at the head and
+ * retried with exponential backoff before any later hit is written; after stats.ingest.async.max-retries failed
+ * retries its hits are dropped and counted in stats.ingest.buffer.dropped. A batch rejected for its data is instead
+ * bisected right away, so that only the hits that cannot be stored are dropped. Once stopped, offer returns false so
+ * that callers write the hit themselves.
+ */
+@Component
+@Slf4j
+public class HitBuffer {
+    private final HitWriter writer;
+    private final boolean enabled;
+    private final int flushSize;
+    private final long flushIntervalMs;
+    private final long shutdownTimeoutMs;
+    private final int maxRetries;
+    private final long retryBackoffMs;
+    private final long maxRetryBackoffMs;
+    private final BlockingQueue<EndpointHit> queue;
+    private final ReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final Timer flushTimer;
+    private final Counter overflowCounter;
+    private final Counter droppedCounter;
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "stats-hit-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean running;
+    private volatile int flushing;
+
+    public HitBuffer(HitWriter writer,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.ingest.async.enabled:false}") boolean enabled,
+                     @Value("${stats.ingest.async.buffer-size:100000}") int bufferSize,
+                     @Value("${stats.ingest.async.flush-size:1000}") int flushSize,
+                     @Value("${stats.ingest.async.flush-interval-ms:1000}") long flushIntervalMs,
+                     @Value("${stats.ingest.async.shutdown-timeout-ms:30000}") long shutdownTimeoutMs,
+                     @Value("${stats.ingest.async.max-retries:5}") int maxRetries,
+                     @Value("${stats.ingest.async.retry-backoff-ms:200}") long retryBackoffMs,
+                     @Value("${stats.ingest.async.max-retry-backoff-ms:10000}") long maxRetryBackoffMs) {
+        this.writer = writer;
+        this.enabled = enabled;
+        this.flushSize = flushSize;
+        this.flushIntervalMs = flushIntervalMs;
+        this.shutdownTimeoutMs = shutdownTimeoutMs;
+        this.maxRetries = maxRetries;
+        this.retryBackoffMs = retryBackoffMs;
+        this.maxRetryBackoffMs = maxRetryBackoffMs;
+        this.queue = new ArrayBlockingQueue<>(bufferSize);
+        Gauge.builder("stats.ingest.buffer.depth", queue, BlockingQueue::size)
+                .description("Hits waiting to be written to the database")
+                .register(meterRegistry);
+        this.flushTimer = Timer.builder("stats.ingest.buffer.flush")
+                .description("Time to write one batch of buffered hits")
+                .register(meterRegistry);
+        this.overflowCounter = Counter.builder("stats.ingest.buffer.overflow")
+                .description("Hits written synchronously because the buffer was full")
+                .register(meterRegistry);
+        this.droppedCounter = Counter.builder("stats.ingest.buffer.dropped")
+                .description("Buffered hits lost after their write failed on every retry or at shutdown")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (enabled) {
+            running = true;
+            flusher.submit(this::run);
+            log.info("Async hit ingest enabled: buffer={}, flushSize={}, flushIntervalMs={}",
+                    queue.remainingCapacity(), flushSize, flushIntervalMs);
+        }
+    }
+
+    /**
+     * Queues the hit, or returns false when the buffer is full or stopped. Holding the read lock keeps stop from
+     * completing between the running check and the enqueue, so every queued hit is seen by the flusher's drain.
+     */
+    public boolean offer(EndpointHit hit) {
+        Lock lock = stateLock.readLock();
+        lock.lock();
+        try {
+            if (!running) {
+                return false;
+            }
+            if (queue.offer(hit)) {
+                return true;
+            }
+        } finally {
+            lock.unlock();
+        }
+        overflowCounter.increment();
+        return false;
+    }
+
+    @PreDestroy
+    public void stop() throws InterruptedException {
+        Lock lock = stateLock.writeLock();
+        lock.lock();
+        try {
+            if (!running) {
+                return;
+            }
+            running = false;
+        } finally {
+            lock.unlock();
+        }
+        flusher.shutdown();
+        if (!flusher.awaitTermination(shutdownTimeoutMs, TimeUnit.MILLISECONDS)) {
+            int lost = queue.size() + flushing;
+            droppedCounter.increment(lost);
+            log.error("Hit buffer was not drained in {} ms, {} hits lost", shutdownTimeoutMs, lost);
+        }
+    }
+
+    private void run() {
+        List<EndpointHit> batch = new ArrayList<>(flushSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                fill(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                queue.drainTo(batch);
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                flush(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void fill(List<EndpointHit> batch) throws InterruptedException {
+        EndpointHit first = queue.poll(flushIntervalMs, TimeUnit.MILLISECONDS);
+        if (first == null) {
+            return;
+        }
+        batch.add(first);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        while (batch.size() < flushSize) {
+            queue.drainTo(batch, flushSize - batch.size());
+            long remaining = deadline - System.nanoTime();
+            if (batch.size() >= flushSize || remaining <= 0 || !running) {
+                return;
+            }
+            EndpointHit next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void flush(List<EndpointHit> batch) {
+        flushing = batch.size();
+        write(batch);
+        flushing = 0;
+    }
+
+    private void write(List<EndpointHit> batch) {
+        long backoffMs = retryBackoffMs;
+        for (int attempt = 0; ; attempt++) {
+            try {
+                flushTimer.record(() -> writer.write(batch));
+                log.debug("Flushed {} hits", batch.size());
+                return;
+            } catch (DataIntegrityViolationException e) {
+                reset(batch);
+                split(batch, attempt + 1, e);
+                return;
+            } catch (RuntimeException e) {
+                if (attempt >= maxRetries) {
+                    drop(batch, attempt + 1, e);
+                    return;
+                }
+                log.warn("Failed to flush {} hits, retrying in {} ms", batch.size(), backoffMs, e);
+            }
+            try {
+                Thread.sleep(backoffMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                drop(batch, attempt + 1, e);
+                return;
+            }
+            backoffMs = Math.min(backoffMs * 2, maxRetryBackoffMs);
+            reset(batch);
+        }
+    }
+
+    /**
+     * Writes the halves of a batch rejected for its data separately, as retrying it whole would fail the same way,
+     * down to the single hits that cannot be stored, which are dropped.
+     */
+    private void split(List<EndpointHit> batch, int attempts, DataIntegrityViolationException cause) {
+        if (batch.size() == 1) {
+            drop(batch, attempts, cause);
+            return;
+        }
+        log.warn("Failed to flush {} hits on invalid data, writing its halves separately", batch.size(), cause);
+        int half = batch.size() / 2;
+        write(new ArrayList<>(batch.subList(0, half)));
+        write(new ArrayList<>(batch.subList(half, batch.size())));
+    }
+
+    private void drop(List<EndpointHit> batch, int attempts, Exception cause) {
+        droppedCounter.increment(batch.size());
+        log.error("Dropped {} hits after {} failed writes", batch.size(), attempts, cause);
+    }
+
+    /**
+     * Undoes what a rolled back write left on the hits: the ids it assigned and the repeats it folded into a row.
+     */
+    private static void reset(List<EndpointHit> batch) {
+        for (EndpointHit hit : batch) {
+            hit.setId(null);
+            hit.setHits(1);
+        }
+    }
+}
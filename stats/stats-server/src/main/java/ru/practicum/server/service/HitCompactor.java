@@ -0,0 +1,214 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.repository.RollupRepository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Folds raw hits older than stats.compaction.age-days into DAY rollups and deletes them, so that the stats table only
+ * holds the recent window. Each batch moves its rows from stats, and from the MINUTE and HOUR rollups, into the DAY
+ * rollups in one transaction, so raw hits plus DAY rollups always count every hit exactly once; days before the rollup
+ * coverage of {@link RollupService} hold no MINUTE or HOUR rollups, and the rows moved from those days are not taken
+ * from them. The DAY sketches written at ingest are kept for unique counts while the HOUR sketches below the watermark
+ * are dropped. Nothing is compacted until {@link SketchService} has backfilled the sketches of every raw day, as the
+ * ips go with the rows.
+ * <p>
+ * Below the watermark hits are only known per day: a range that starts or ends inside a compacted day counts that
+ * whole day, and unique hits there come from the DAY sketches, or from the day bitmaps when they cover it.
+ */
+@Component
+@Slf4j
+public class HitCompactor {
+    private static final int WATERMARK_ID = 1;
+    private static final int ROLLUP_COVERAGE_ID = 1;
+    private static final String MOVE_BATCH = "DELETE FROM stats WHERE (id, timestamp) IN " +
+            "(SELECT id, timestamp FROM stats WHERE timestamp < ? LIMIT ?) " +
+            "RETURNING app_id, uri_id, timestamp, hits";
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final RollupRepository rollupRepository;
+    private final StatsCache cache;
+    private final SketchService sketchService;
+    private final boolean enabled;
+    private final boolean rollupEnabled;
+    private final int ageDays;
+    private final int batchSize;
+    private volatile LocalDateTime compactedBefore;
+
+    public HitCompactor(JdbcTemplate jdbcTemplate,
+                        TransactionTemplate transactionTemplate,
+                        RollupRepository rollupRepository,
+                        StatsCache cache,
+                        SketchService sketchService,
+                        @Value("${stats.compaction.enabled:false}") boolean enabled,
+                        @Value("${stats.compaction.age-days:30}") int ageDays,
+                        @Value("${stats.compaction.batch-size:10000}") int batchSize,
+                        @Value("${stats.rollup.enabled:true}") boolean rollupEnabled,
+                        @Value("${stats.sketch.enabled:true}") boolean sketchEnabled,
+                        @Value("${stats.storage:jpa}") String storage) {
+        if (enabled && (!sketchEnabled || !"jpa".equals(storage))) {
+            throw new IllegalStateException("stats.compaction.enabled requires stats.sketch.enabled=true " +
+                    "and stats.storage=jpa");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.rollupRepository = rollupRepository;
+        this.cache = cache;
+        this.sketchService = sketchService;
+        this.enabled = enabled;
+        this.rollupEnabled = rollupEnabled;
+        this.ageDays = Math.max(ageDays, 1);
+        this.batchSize = batchSize;
+    }
+
+    @PostConstruct
+    public void loadWatermark() {
+        List<Timestamp> watermark = jdbcTemplate.queryForList("SELECT compacted_before FROM stats_compaction " +
+                "WHERE id = ?", Timestamp.class, WATERMARK_ID);
+        compactedBefore = watermark.isEmpty() ? null : watermark.get(0).toLocalDateTime();
+    }
+
+    /**
+     * Start of the raw window, or null when nothing was compacted yet.
+     */
+    public LocalDateTime compactedBefore() {
+        return compactedBefore;
+    }
+
+    public boolean isCompacted(LocalDateTime start) {
+        LocalDateTime watermark = compactedBefore;
+        return watermark != null && start.isBefore(watermark);
+    }
+
+    /**
+     * Start of a range, moved back to midnight when it falls inside a compacted day.
+     */
+    public LocalDateTime alignStart(LocalDateTime start) {
+        return isCompacted(start) ? start.truncatedTo(ChronoUnit.DAYS) : start;
+    }
+
+    /**
+     * Inclusive end of a range, moved to the end of its day when it falls inside a compacted day.
+     */
+    public LocalDateTime alignEnd(LocalDateTime end) {
+        LocalDateTime watermark = compactedBefore;
+        LocalDateTime endExclusive = TimeBuckets.exclusiveEnd(end);
+        if (watermark == null || endExclusive.isAfter(watermark)) {
+            return end;
+        }
+        return TimeBuckets.ceil(endExclusive, ChronoUnit.DAYS).minus(1, ChronoUnit.MICROS);
+    }
+
+    /**
+     * Rejects histogram buckets finer than a day from start on, as compacted hits are only kept per day.
+     */
+    public void checkBucket(LocalDateTime start, RollupGranularity granularity) {
+        if (granularity != RollupGranularity.DAY && isCompacted(start)) {
+            throw new DataException("Хиты до " + compactedBefore + " хранятся по суткам: используйте bucket=day");
+        }
+    }
+
+    /**
+     * End of the whole days before the range end whose compacted hits are held in DAY rollups, or null when nothing
+     * was compacted. Those hits are no longer in stats nor in the finer rollups.
+     */
+    public LocalDateTime compactedTo(LocalDateTime endExclusive) {
+        LocalDateTime watermark = compactedBefore;
+        if (watermark == null) {
+            return null;
+        }
+        LocalDateTime to = endExclusive.truncatedTo(ChronoUnit.DAYS);
+        return to.isBefore(watermark) ? to : watermark;
+    }
+
+    @Scheduled(cron = "${stats.compaction.cron:0 30 0 * * *}")
+    public void compact() {
+        if (!enabled) {
+            return;
+        }
+        if (!sketchService.coversStoredHits()) {
+            log.info("Compaction postponed: sketches of raw hits before {} are still being backfilled",
+                    sketchService.coveredFrom());
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        LocalDateTime cutoff = LocalDate.now().minusDays(ageDays).atStartOfDay();
+        if (compactedBefore == null || cutoff.isAfter(compactedBefore)) {
+            jdbcTemplate.update("INSERT INTO stats_compaction (id, compacted_before) VALUES (?, ?) " +
+                    "ON CONFLICT (id) DO UPDATE SET compacted_before = EXCLUDED.compacted_before",
+                    WATERMARK_ID, Timestamp.valueOf(cutoff));
+            compactedBefore = cutoff;
+            cache.clear();
+        }
+        LocalDateTime watermark = compactedBefore;
+        long moved = 0;
+        int batch;
+        do {
+            batch = transactionTemplate.execute(status -> moveBatch(watermark));
+            moved += batch;
+        } while (batch == batchSize);
+        int rollups = jdbcTemplate.update("DELETE FROM stats_rollup WHERE granularity IN (?, ?) AND bucket < ? " +
+                        "AND hits = 0", RollupGranularity.MINUTE.name(), RollupGranularity.HOUR.name(),
+                Timestamp.valueOf(watermark));
+        int sketches = jdbcTemplate.update("DELETE FROM stats_sketch WHERE granularity = ? AND bucket < ?",
+                RollupGranularity.HOUR.name(), Timestamp.valueOf(watermark));
+        log.info("Compacted {} raw hits before {}, dropped {} emptied rollups and {} sketches in {} ms", moved,
+                watermark, rollups, sketches, System.currentTimeMillis() - startedAt);
+    }
+
+    private int moveBatch(LocalDateTime watermark) {
+        List<EndpointHit> hits = jdbcTemplate.query(MOVE_BATCH, (rs, rowNum) -> EndpointHit.builder()
+                .appId(rs.getInt("app_id"))
+                .uriId(rs.getInt("uri_id"))
+                .timestamp(rs.getTimestamp("timestamp").toLocalDateTime())
+                .hits(rs.getInt("hits"))
+                .build(), Timestamp.valueOf(watermark), batchSize);
+        LocalDateTime rolledFrom = rollupEnabled ? rolledFrom() : null;
+        Map<HitRollupId, Long> counts = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            long weight = hit.getHits();
+            move(counts, RollupGranularity.DAY, hit, weight);
+            if (rolledFrom != null && !hit.getTimestamp().isBefore(rolledFrom)) {
+                move(counts, RollupGranularity.MINUTE, hit, -weight);
+                move(counts, RollupGranularity.HOUR, hit, -weight);
+            }
+        }
+        rollupRepository.incrementAll(counts);
+        return hits.size();
+    }
+
+    /**
+     * Start of the days whose MINUTE and HOUR rollups {@link RollupService} keeps, read from its coverage row as that
+     * service depends on the compactor. Its backfill runs on the same scheduler thread, so the coverage cannot move
+     * during a batch.
+     */
+    private LocalDateTime rolledFrom() {
+        List<Date> coveredFrom = jdbcTemplate.queryForList("SELECT covered_from FROM stats_rollup_coverage " +
+                "WHERE id = ?", Date.class, ROLLUP_COVERAGE_ID);
+        return coveredFrom.isEmpty() ? null : coveredFrom.get(0).toLocalDate().atStartOfDay();
+    }
+
+    private static void move(Map<HitRollupId, Long> counts, RollupGranularity granularity, EndpointHit hit,
+                             long delta) {
+        counts.merge(new HitRollupId(granularity, hit.getAppId(), hit.getUriId(),
+                hit.getTimestamp().truncatedTo(granularity.getUnit())), delta, Long::sum);
+    }
+}
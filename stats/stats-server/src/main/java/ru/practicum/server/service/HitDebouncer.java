@@ -0,0 +1,205 @@
+package ru.practicum.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.EqualsAndHashCode;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.EndpointHit;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+
+/**
+ * Collapses bursts of identical (app, uri, ip) hits, such as page refreshes, into the stats row of the burst's first
+ * hit: a repeat within stats.debounce.window after it and in the same minute adds to the row's hits instead of
+ * adding a row. Open bursts are held in memory in stripes and forgotten once the window has passed, so a restart only
+ * starts new rows. Listeners still get every hit; raw counts sum the hits column and count a repeat at the time of
+ * its burst's first hit.
+ */
+@Component
+public class HitDebouncer {
+    private static final String INCREMENT = "UPDATE stats SET hits = hits + ? WHERE id = ? AND timestamp = ?";
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final Duration window;
+    private final int maxBurstsPerStripe;
+    private final Stripe[] stripes;
+    private final Counter debouncedCounter;
+
+    public HitDebouncer(JdbcTemplate jdbcTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${stats.debounce.enabled:false}") boolean enabled,
+                        @Value("${stats.debounce.window:5s}") Duration window,
+                        @Value("${stats.debounce.stripes:64}") int stripes,
+                        @Value("${stats.debounce.max-bursts:1000000}") int maxBursts,
+                        @Value("${stats.storage:jpa}") String storage) {
+        if (enabled && !"jpa".equals(storage)) {
+            throw new IllegalStateException("stats.debounce.enabled requires stats.storage=jpa");
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.window = window;
+        this.stripes = new Stripe[Integer.highestOneBit(Math.max(stripes, 1))];
+        for (int i = 0; i < this.stripes.length; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.maxBurstsPerStripe = Math.max(maxBursts / this.stripes.length, 1);
+        this.debouncedCounter = Counter.builder("stats.ingest.debounced")
+                .description("Hits added to the row of an earlier identical hit instead of stored as rows")
+                .register(meterRegistry);
+        Gauge.builder("stats.ingest.debounce.bursts", this, HitDebouncer::size)
+                .description("Open bursts of identical hits")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Rows to insert for the encoded hits. Repeats of bursts opened by earlier batches are added to their rows right
+     * away, repeats within the batch to the hits of their first row. Must be called in the transaction that inserts
+     * the returned rows, whose bursts are opened once it commits.
+     */
+    public List<EndpointHit> collapse(List<EndpointHit> hits) {
+        if (!enabled) {
+            return hits;
+        }
+        long now = System.currentTimeMillis();
+        Map<Key, EndpointHit> firstRows = new HashMap<>();
+        Map<Key, Burst> bursts = new LinkedHashMap<>();
+        Map<Key, Integer> repeats = new HashMap<>();
+        List<EndpointHit> rows = new ArrayList<>();
+        for (EndpointHit hit : hits) {
+            Key key = new Key(hit.getAppId(), hit.getUriId(), hit.getIp());
+            EndpointHit row = firstRows.get(key);
+            if (row != null && isRepeat(row.getTimestamp(), hit.getTimestamp())) {
+                row.setHits(row.getHits() + 1);
+                continue;
+            }
+            if (row == null) {
+                Burst burst = stripe(key).find(key, now);
+                if (burst != null && isRepeat(burst.rowTime, hit.getTimestamp())) {
+                    bursts.put(key, burst);
+                    repeats.merge(key, 1, Integer::sum);
+                    continue;
+                }
+            }
+            firstRows.put(key, hit);
+            rows.add(hit);
+        }
+        rows.addAll(increment(bursts, repeats));
+        debouncedCounter.increment(hits.size() - rows.size());
+        open(rows, now);
+        return rows;
+    }
+
+    /**
+     * Adds the repeats to the rows of their bursts. Repeats of rows that are gone are returned as new rows.
+     */
+    private List<EndpointHit> increment(Map<Key, Burst> bursts, Map<Key, Integer> repeats) {
+        if (bursts.isEmpty()) {
+            return List.of();
+        }
+        List<Key> keys = new ArrayList<>(bursts.keySet());
+        List<Object[]> args = new ArrayList<>(keys.size());
+        for (Key key : keys) {
+            Burst burst = bursts.get(key);
+            args.add(new Object[]{repeats.get(key), burst.rowId, Timestamp.valueOf(burst.rowTime)});
+        }
+        int[] updated = jdbcTemplate.batchUpdate(INCREMENT, args);
+        List<EndpointHit> rows = new ArrayList<>();
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] == 0) {
+                Key key = keys.get(i);
+                rows.add(EndpointHit.builder()
+                        .appId(key.appId)
+                        .uriId(key.uriId)
+                        .ip(key.ip)
+                        .timestamp(bursts.get(key).rowTime)
+                        .hits(repeats.get(key))
+                        .build());
+            }
+        }
+        return rows;
+    }
+
+    private void open(List<EndpointHit> rows, long now) {
+        AfterCommit.run(() -> openAll(rows, now));
+    }
+
+    private void openAll(List<EndpointHit> rows, long now) {
+        for (EndpointHit row : rows) {
+            Key key = new Key(row.getAppId(), row.getUriId(), row.getIp());
+            stripe(key).open(key, new Burst(row.getId(), row.getTimestamp(), now));
+        }
+    }
+
+    private boolean isRepeat(LocalDateTime first, LocalDateTime time) {
+        return !time.isBefore(first) && time.isBefore(first.plus(window))
+                && time.truncatedTo(ChronoUnit.MINUTES).equals(first.truncatedTo(ChronoUnit.MINUTES));
+    }
+
+    private Stripe stripe(Key key) {
+        return stripes[key.hashCode() & (stripes.length - 1)];
+    }
+
+    private int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    /**
+     * Bursts in the order they were opened, so that expired ones are dropped from the head.
+     */
+    private final class Stripe {
+        private final LinkedHashMap<Key, Burst> bursts = new LinkedHashMap<>();
+
+        private synchronized Burst find(Key key, long now) {
+            expire(now);
+            return bursts.get(key);
+        }
+
+        private synchronized void open(Key key, Burst burst) {
+            bursts.remove(key);
+            bursts.put(key, burst);
+            expire(burst.openedAt);
+        }
+
+        private synchronized int size() {
+            return bursts.size();
+        }
+
+        private void expire(long now) {
+            Iterator<Burst> oldest = bursts.values().iterator();
+            while (oldest.hasNext()) {
+                Burst burst = oldest.next();
+                if (bursts.size() <= maxBurstsPerStripe && now - burst.openedAt < window.toMillis()) {
+                    return;
+                }
+                oldest.remove();
+            }
+        }
+    }
+
+    @EqualsAndHashCode
+    @RequiredArgsConstructor
+    private static final class Key {
+        private final int appId;
+        private final int uriId;
+        private final String ip;
+    }
+
+    @RequiredArgsConstructor
+    private static final class Burst {
+        private final long rowId;
+        private final LocalDateTime rowTime;
+        private final long openedAt;
+    }
+}
@@ -0,0 +1,123 @@
+package ru.practicum.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.sketch.RecentIds;
+
+import java.sql.PreparedStatement;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Drops hits whose client-supplied hit id was already stored, so that clients may retry and resend batches. The ids
+ * are claimed in the stats_hit_id unique key within the transaction writing the hits, and the ids committed in the
+ * last stats.dedupe.window are also kept in memory, so that most retries are dropped without touching the database.
+ * Keys older than stats.dedupe.key-retention are pruned, after which an id may be stored again.
+ */
+@Component
+@Slf4j
+public class HitDeduplicator {
+    private static final String CLAIM = "INSERT INTO stats_hit_id (hit_id) SELECT unnest(?) " +
+            "ON CONFLICT (hit_id) DO NOTHING RETURNING hit_id";
+    private static final String PRUNE = "DELETE FROM stats_hit_id WHERE hit_id IN (SELECT hit_id FROM stats_hit_id " +
+            "WHERE received < LOCALTIMESTAMP - make_interval(secs => ?) LIMIT ?)";
+    private static final int RECENT_SLICES = 10;
+    private static final int PRUNE_BATCH_SIZE = 10000;
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final long keyRetentionSeconds;
+    private final RecentIds recent;
+    private final Counter memoryCounter;
+    private final Counter databaseCounter;
+
+    public HitDeduplicator(JdbcTemplate jdbcTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${stats.dedupe.enabled:true}") boolean enabled,
+                           @Value("${stats.dedupe.window:10m}") Duration window,
+                           @Value("${stats.dedupe.max-recent-ids:1000000}") int maxRecentIds,
+                           @Value("${stats.dedupe.key-retention:1d}") Duration keyRetention) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.keyRetentionSeconds = keyRetention.getSeconds();
+        this.recent = new RecentIds(window.toMillis(), RECENT_SLICES, maxRecentIds);
+        this.memoryCounter = duplicates(meterRegistry, "memory");
+        this.databaseCounter = duplicates(meterRegistry, "database");
+        Gauge.builder("stats.ingest.recent-ids", recent, RecentIds::size)
+                .description("Committed hit ids remembered for deduplication")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Hits of the batch that are not duplicates, in their order. Hits without an id are always kept. Must be called
+     * in the transaction that stores the kept hits, so that their ids are claimed only if the hits are committed.
+     */
+    public List<EndpointHit> claim(List<EndpointHit> hits) {
+        if (!enabled) {
+            return hits;
+        }
+        Set<UUID> candidates = new LinkedHashSet<>();
+        long repeated = 0;
+        for (EndpointHit hit : hits) {
+            UUID id = hit.getHitId();
+            if (id != null && (recent.contains(id) || !candidates.add(id))) {
+                repeated++;
+            }
+        }
+        memoryCounter.increment(repeated);
+        if (candidates.isEmpty() && repeated == 0) {
+            return hits;
+        }
+        Set<UUID> claimed = candidates.isEmpty() ? new HashSet<>() : insertIfAbsent(candidates);
+        databaseCounter.increment(candidates.size() - claimed.size());
+        remember(Set.copyOf(claimed));
+        List<EndpointHit> kept = new ArrayList<>(hits.size());
+        for (EndpointHit hit : hits) {
+            if (hit.getHitId() == null || claimed.remove(hit.getHitId())) {
+                kept.add(hit);
+            }
+        }
+        return kept;
+    }
+
+    @Scheduled(cron = "${stats.dedupe.prune-cron:0 */10 * * * *}")
+    public void prune() {
+        if (!enabled) {
+            return;
+        }
+        long pruned = 0;
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update(PRUNE, keyRetentionSeconds, PRUNE_BATCH_SIZE);
+            pruned += deleted;
+        } while (deleted == PRUNE_BATCH_SIZE);
+        if (pruned > 0) {
+            log.info("Pruned {} hit ids older than {} s", pruned, keyRetentionSeconds);
+        }
+    }
+
+    private void remember(Set<UUID> ids) {
+        AfterCommit.run(() -> recent.addAll(ids));
+    }
+
+    private Set<UUID> insertIfAbsent(Set<UUID> ids) {
+        return new HashSet<>(jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(CLAIM);
+            statement.setArray(1, connection.createArrayOf("uuid", ids.toArray()));
+            return statement;
+        }, (rs, rowNum) -> rs.getObject("hit_id", UUID.class)));
+    }
+
+    private static Counter duplicates(MeterRegistry meterRegistry, String detectedIn) {
+        return Counter.builder("stats.ingest.duplicates")
+                .description("Hits dropped because their hit id was already stored")
+                .tag("detected", detectedIn)
+                .register(meterRegistry);
+    }
+}
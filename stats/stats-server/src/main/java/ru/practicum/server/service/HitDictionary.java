@@ -0,0 +1,227 @@
+package ru.practicum.server.service;
+
+import org.springframework.stereotype.Component;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.model.AppDictionaryEntry;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitChange;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.StatsChange;
+import ru.practicum.server.model.UriDictionaryEntry;
+import ru.practicum.server.model.ViewStats;
+import ru.practicum.server.repository.AppDictionaryRepository;
+import ru.practicum.server.repository.UriDictionaryRepository;
+import ru.practicum.server.sketch.UriTrie;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Interns app names and uris into the int ids stored in stats and the derived tables. Both dictionaries only
+ * grow, so every id seen after commit is cached for the life of the process. Counters are keyed by
+ * {@link #key(int, int)}, which packs (app id, uri id) into a long. Every known uri is also kept in a {@link UriTrie}
+ * to resolve prefix patterns.
+ */
+@Component
+public class HitDictionary {
+    private final UriDictionaryRepository uriRepository;
+    private final UriTrie uriTrie = new UriTrie();
+    private final Dictionary apps;
+    private final Dictionary uris;
+
+    public HitDictionary(AppDictionaryRepository appRepository, UriDictionaryRepository uriRepository) {
+        this.uriRepository = uriRepository;
+        this.apps = new Dictionary((name, id) -> {
+        }, appRepository::insertAllIfAbsent,
+                names -> appRepository.findAllByAppIn(names).stream()
+                        .collect(Collectors.toMap(AppDictionaryEntry::getApp, AppDictionaryEntry::getId)),
+                ids -> appRepository.findAllByIdIn(ids).stream()
+                        .collect(Collectors.toMap(AppDictionaryEntry::getId, AppDictionaryEntry::getApp)));
+        this.uris = new Dictionary(uriTrie::add, uriRepository::insertAllIfAbsent,
+                names -> uriRepository.findAllByUriIn(names).stream()
+                        .collect(Collectors.toMap(UriDictionaryEntry::getUri, UriDictionaryEntry::getId)),
+                ids -> uriRepository.findAllByIdIn(ids).stream()
+                        .collect(Collectors.toMap(UriDictionaryEntry::getId, UriDictionaryEntry::getUri)));
+    }
+
+    @PostConstruct
+    public void loadUris() {
+        uriRepository.findAll().forEach(entry -> uriTrie.add(entry.getUri(), entry.getId()));
+    }
+
+    public static boolean isPattern(String uri) {
+        return uri.indexOf('*') >= 0;
+    }
+
+    public static long key(int appId, int uriId) {
+        return ((long) appId << 32) | (uriId & 0xFFFFFFFFL);
+    }
+
+    public static int appId(long key) {
+        return (int) (key >>> 32);
+    }
+
+    public static int uriId(long key) {
+        return (int) key;
+    }
+
+    public static void merge(Map<Long, Long> totals, List<HitCount> counts) {
+        for (HitCount count : counts) {
+            totals.merge(key(count.getAppId(), count.getUriId()), count.getHits(), Long::sum);
+        }
+    }
+
+    /**
+     * Sets app and uri ids on the hits, adding names not seen before to the dictionaries.
+     */
+    public void encode(List<EndpointHit> hits) {
+        Map<String, Integer> appIds = apps.resolve(hits.stream().map(EndpointHit::getApp)
+                .collect(Collectors.toSet()), true);
+        Map<String, Integer> uriIds = uris.resolve(hits.stream().map(EndpointHit::getUri)
+                .collect(Collectors.toSet()), true);
+        for (EndpointHit hit : hits) {
+            hit.setAppId(appIds.get(hit.getApp()));
+            hit.setUriId(uriIds.get(hit.getUri()));
+        }
+    }
+
+    /**
+     * Ids of the known uris, or null when no uri filter is given. A name ending in /* matches the uris one segment
+     * below it and one ending in /** matches every uri below it. Uris that were never hit have no id and are left
+     * out, so an empty list means nothing can match.
+     */
+    public List<Integer> findUriIds(List<String> uriNames) {
+        if (uriNames == null) {
+            return null;
+        }
+        Set<Integer> ids = new HashSet<>();
+        Set<String> exact = new HashSet<>();
+        for (String name : uriNames) {
+            if (name.endsWith("/**")) {
+                ids.addAll(uriTrie.descendants(name.substring(0, name.length() - 3)));
+            } else if (name.endsWith("/*")) {
+                ids.addAll(uriTrie.children(name.substring(0, name.length() - 2)).values());
+            } else if (isPattern(name)) {
+                throw new DataException("Шаблон uri может содержать * или ** только в последнем сегменте: " + name);
+            } else {
+                exact.add(name);
+            }
+        }
+        if (!exact.isEmpty()) {
+            ids.addAll(uris.resolve(exact, false).values());
+        }
+        return new ArrayList<>(ids);
+    }
+
+    /**
+     * Ids of the given exact uris that are known, by uri.
+     */
+    public Map<String, Integer> findExactUriIds(Collection<String> uriNames) {
+        return uris.resolve(new HashSet<>(uriNames), false);
+    }
+
+    public List<ViewStats> toViewStats(Map<Long, Long> totals) {
+        Map<Integer, String> appNames = apps.names(totals.keySet().stream()
+                .map(HitDictionary::appId)
+                .collect(Collectors.toSet()));
+        Map<Integer, String> uriNames = uris.names(totals.keySet().stream()
+                .map(HitDictionary::uriId)
+                .collect(Collectors.toSet()));
+        return totals.entrySet().stream()
+                .map(e -> new ViewStats(appNames.get(appId(e.getKey())), uriNames.get(uriId(e.getKey())),
+                        e.getValue()))
+                .sorted(Comparator.comparing(ViewStats::getHits).reversed())
+                .collect(Collectors.toList());
+    }
+
+    public List<StatsChange> toStatsChanges(List<HitChange> changes) {
+        Map<Integer, String> appNames = apps.names(changes.stream()
+                .map(HitChange::getAppId)
+                .collect(Collectors.toSet()));
+        Map<Integer, String> uriNames = uris.names(changes.stream()
+                .map(HitChange::getUriId)
+                .collect(Collectors.toSet()));
+        return changes.stream()
+                .map(change -> new StatsChange(appNames.get(change.getAppId()), uriNames.get(change.getUriId()),
+                        change.getHits(), change.getUniqueHits()))
+                .collect(Collectors.toList());
+    }
+
+    private static final class Dictionary {
+        private final BiConsumer<String, Integer> onCache;
+        private final Consumer<Collection<String>> insert;
+        private final Function<Collection<String>, Map<String, Integer>> findIds;
+        private final Function<Collection<Integer>, Map<Integer, String>> findNames;
+        private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+        private final Map<Integer, String> names = new ConcurrentHashMap<>();
+
+        private Dictionary(BiConsumer<String, Integer> onCache,
+                           Consumer<Collection<String>> insert,
+                           Function<Collection<String>, Map<String, Integer>> findIds,
+                           Function<Collection<Integer>, Map<Integer, String>> findNames) {
+            this.onCache = onCache;
+            this.insert = insert;
+            this.findIds = findIds;
+            this.findNames = findNames;
+        }
+
+        private Map<String, Integer> resolve(Set<String> values, boolean create) {
+            Map<String, Integer> resolved = new HashMap<>();
+            Set<String> missing = new HashSet<>();
+            for (String value : values) {
+                Integer id = ids.get(value);
+                if (id != null) {
+                    resolved.put(value, id);
+                } else {
+                    missing.add(value);
+                }
+            }
+            if (!missing.isEmpty()) {
+                if (create) {
+                    insert.accept(missing);
+                }
+                Map<String, Integer> found = findIds.apply(missing);
+                resolved.putAll(found);
+                cacheAfterCommit(found);
+            }
+            return resolved;
+        }
+
+        private Map<Integer, String> names(Set<Integer> values) {
+            Map<Integer, String> resolved = new HashMap<>();
+            Set<Integer> missing = new HashSet<>();
+            for (Integer value : values) {
+                String name = names.get(value);
+                if (name != null) {
+                    resolved.put(value, name);
+                } else {
+                    missing.add(value);
+                }
+            }
+            if (!missing.isEmpty()) {
+                Map<Integer, String> found = findNames.apply(missing);
+                resolved.putAll(found);
+                cacheAfterCommit(found.entrySet().stream()
+                        .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey)));
+            }
+            return resolved;
+        }
+
+        private void cacheAfterCommit(Map<String, Integer> found) {
+            AfterCommit.run(() -> cache(found));
+        }
+
+        private void cache(Map<String, Integer> found) {
+            found.forEach((name, id) -> {
+                ids.put(name, id);
+                names.put(id, name);
+                onCache.accept(name, id);
+            });
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package ru.practicum.server.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.PGCopyOutputStream;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.ImportResultDto;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.IpAddressConverter;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+/**
+ * Bulk loads hits from CSV (app,uri,ip,timestamp[,hitId]) or NDJSON through the COPY protocol. Rows are validated
+ * as they are read, invalid ones are counted and skipped, and every chunk of stats.import.chunk-size valid rows is
+ * copied into stats and handed to the {@link HitListener}s in its own transaction, so a failed import keeps the
+ * chunks committed before it. Rows whose hitId was already stored are skipped, so a failed import can be resent.
+ * The partitions of a chunk's days are created before it is copied. Ids are taken from blocks of stats_id_seq
+ * reserved the way the entity's pooled generator reserves them, one nextval per {@link EndpointHit#ID_ALLOCATION_SIZE}
+ * rows, rather than by the column default, which would spend a whole block on every row.
+ */
+@Component
+@Slf4j
+public class HitImporter {
+    private static final DateTimeFormatter TIME_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final String COPY_SQL = "COPY stats (id, app_id, uri_id, ip, timestamp) FROM STDIN " +
+            "WITH (FORMAT csv)";
+    private static final String RESERVE_IDS_SQL = "SELECT nextval('stats_id_seq') FROM generate_series(1, ?)";
+    private static final int MAX_NAME_LENGTH = 100;
+    private static final int COPY_BUFFER_SIZE = 1 << 16;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final HitDictionary dictionary;
+    private final HitDeduplicator deduplicator;
+    private final PartitionManager partitionManager;
+    private final List<HitListener> listeners;
+    private final ObjectReader hitReader;
+    private final IpAddressConverter ipConverter = new IpAddressConverter();
+    private final int chunkSize;
+    private final int maxErrors;
+
+    public HitImporter(JdbcTemplate jdbcTemplate,
+                       TransactionTemplate transactionTemplate,
+                       HitDictionary dictionary,
+                       HitDeduplicator deduplicator,
+                       PartitionManager partitionManager,
+                       List<HitListener> listeners,
+                       ObjectMapper objectMapper,
+                       @Value("${stats.import.chunk-size:50000}") int chunkSize,
+                       @Value("${stats.import.max-errors:100}") int maxErrors) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.dictionary = dictionary;
+        this.deduplicator = deduplicator;
+        this.partitionManager = partitionManager;
+        this.listeners = listeners;
+        this.hitReader = objectMapper.readerFor(EndpointHitDto.class);
+        this.chunkSize = chunkSize;
+        this.maxErrors = maxErrors;
+    }
+
+    public ImportResultDto importCsv(InputStream in) throws IOException {
+        return importLines(in, true);
+    }
+
+    public ImportResultDto importNdjson(InputStream in) throws IOException {
+        return importLines(in, false);
+    }
+
+    private ImportResultDto importLines(InputStream in, boolean csv) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        Progress progress = new Progress();
+        List<EndpointHit> chunk = new ArrayList<>(chunkSize);
+        String line;
+        long lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.isBlank() || csv && lineNumber == 1 && line.trim().toLowerCase().startsWith("app,")) {
+                continue;
+            }
+            try {
+                chunk.add(toHit(csv ? parseCsv(line) : parseJson(line)));
+            } catch (DataException e) {
+                progress.reject(lineNumber, e.getMessage());
+                continue;
+            }
+            if (chunk.size() == chunkSize) {
+                write(chunk, progress);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            write(chunk, progress);
+        }
+        log.info("Import finished: {} rows imported, {} rejected, {} duplicates in {} ms", progress.imported,
+                progress.rejected, progress.duplicates, progress.elapsedMs());
+        return ImportResultDto.builder()
+                .imported(progress.imported)
+                .rejected(progress.rejected)
+                .duplicates(progress.duplicates)
+                .errors(progress.errors)
+                .build();
+    }
+
+    private void write(List<EndpointHit> chunk, Progress progress) {
+        partitionManager.createPartitions(chunk.stream()
+                .map(hit -> hit.getTimestamp().toLocalDate())
+                .collect(Collectors.toSet()));
+        List<EndpointHit> hits = transactionTemplate.execute(status -> {
+            List<EndpointHit> claimed = deduplicator.claim(chunk);
+            if (claimed.isEmpty()) {
+                return claimed;
+            }
+            dictionary.encode(claimed);
+            List<Long> blocks = jdbcTemplate.queryForList(RESERVE_IDS_SQL, Long.class,
+                    (claimed.size() + EndpointHit.ID_ALLOCATION_SIZE - 1) / EndpointHit.ID_ALLOCATION_SIZE);
+            jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+                try (Writer writer = new OutputStreamWriter(new PGCopyOutputStream(
+                        connection.unwrap(PGConnection.class), COPY_SQL, COPY_BUFFER_SIZE), StandardCharsets.UTF_8)) {
+                    for (int i = 0; i < claimed.size(); i++) {
+                        writeRow(writer, idOf(blocks, i), claimed.get(i));
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                return null;
+            });
+            listeners.forEach(listener -> listener.onHits(claimed));
+            return claimed;
+        });
+        progress.imported += hits.size();
+        progress.duplicates += chunk.size() - hits.size();
+        log.info("Imported {} rows ({} rejected, {} duplicates), {} rows/s", progress.imported, progress.rejected,
+                progress.duplicates, progress.imported * 1000 / Math.max(progress.elapsedMs(), 1));
+    }
+
+    /**
+     * Id of the row-th row of a chunk: like the pooled generator, a block value N stands for the ids N - 49 to N.
+     */
+    private static long idOf(List<Long> blocks, int row) {
+        return blocks.get(row / EndpointHit.ID_ALLOCATION_SIZE) - EndpointHit.ID_ALLOCATION_SIZE + 1 +
+                row % EndpointHit.ID_ALLOCATION_SIZE;
+    }
+
+    private void writeRow(Writer writer, long id, EndpointHit hit) throws IOException {
+        writer.write(Long.toString(id));
+        writer.write(',');
+        writer.write(Integer.toString(hit.getAppId()));
+        writer.write(',');
+        writer.write(Integer.toString(hit.getUriId()));
+        writer.write(",\\x");
+        for (byte b : ipConverter.convertToDatabaseColumn(hit.getIp())) {
+            writer.write(HEX[(b >> 4) & 0xF]);
+            writer.write(HEX[b & 0xF]);
+        }
+        writer.write(',');
+        writer.write(TIME_FORMATTER.format(hit.getTimestamp()));
+        writer.write('\n');
+    }
+
+    private EndpointHit toHit(EndpointHitDto dto) {
+        checkName("app", dto.getApp());
+        checkName("uri", dto.getUri());
+        String ip = IpAddressConverter.normalize(dto.getIp());
+        if (ip == null) {
+            throw new DataException("Некорректный ip-адрес: " + dto.getIp());
+        }
+        if (dto.getTimestamp() == null) {
+            throw new DataException("Не указано время запроса.");
+        }
+        return EndpointHit.builder()
+                .app(dto.getApp())
+                .uri(dto.getUri())
+                .ip(ip)
+                .timestamp(dto.getTimestamp())
+                .hitId(dto.getHitId())
+                .build();
+    }
+
+    private EndpointHitDto parseJson(String line) {
+        try {
+            return hitReader.readValue(line);
+        } catch (JsonProcessingException e) {
+            throw new DataException("Некорректная строка JSON: " + e.getOriginalMessage());
+        }
+    }
+
+    private static EndpointHitDto parseCsv(String line) {
+        List<String> fields = splitCsv(line);
+        if (fields.size() != 4 && fields.size() != 5) {
+            throw new DataException("Ожидалось 4 или 5 полей (app,uri,ip,timestamp[,hitId]), получено " +
+                    fields.size());
+        }
+        LocalDateTime timestamp;
+        try {
+            timestamp = LocalDateTime.parse(fields.get(3).trim(), TIME_FORMATTER);
+        } catch (DateTimeParseException e) {
+            throw new DataException("Некорректное время запроса: " + fields.get(3));
+        }
+        UUID hitId = null;
+        if (fields.size() == 5 && !fields.get(4).isBlank()) {
+            try {
+                hitId = UUID.fromString(fields.get(4).trim());
+            } catch (IllegalArgumentException e) {
+                throw new DataException("Некорректный hitId: " + fields.get(4));
+            }
+        }
+        return EndpointHitDto.builder()
+                .app(fields.get(0))
+                .uri(fields.get(1))
+                .ip(fields.get(2).trim())
+                .timestamp(timestamp)
+                .hitId(hitId)
+                .build();
+    }
+
+    private static List<String> splitCsv(String line) {
+        List<String> fields = new ArrayList<>(4);
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private static void checkName(String field, String value) {
+        if (value == null || value.isBlank() || value.length() > MAX_NAME_LENGTH) {
+            throw new DataException("Поле " + field + " должно быть непустым и не длиннее " + MAX_NAME_LENGTH +
+                    " символов.");
+        }
+    }
+
+    private final class Progress {
+        private final long startedAt = System.currentTimeMillis();
+        private final List<String> errors = new ArrayList<>();
+        private long imported;
+        private long rejected;
+        private long duplicates;
+
+        private void reject(long lineNumber, String message) {
+            rejected++;
+            if (errors.size() < maxErrors) {
+                errors.add("Строка " + lineNumber + ": " + message);
+            }
+        }
+
+        private long elapsedMs() {
+            return System.currentTimeMillis() - startedAt;
+        }
+    }
+}
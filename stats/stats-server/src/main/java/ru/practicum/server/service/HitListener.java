@@ -0,0 +1,12 @@
+package ru.practicum.server.service;
+
+import ru.practicum.server.model.EndpointHit;
+
+import java.util.List;
+
+/**
+ * Receives every batch of hits saved by {@link HitWriter}, inside the same transaction.
+ */
+public interface HitListener {
+    void onHits(List<EndpointHit> hits);
+}
@@ -0,0 +1,22 @@
+package ru.practicum.server.service;
+
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitVisitor;
+import ru.practicum.server.model.MinuteHits;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Raw-hit scans behind the rollups, sketches and bitmaps, selected with stats.storage. All ranges are half-open
+ * [from, to); a null uriIds means every uri.
+ */
+public interface HitStore {
+    List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds);
+
+    List<MinuteHits> countHitsByMinuteSince(LocalDateTime from);
+}
@@ -0,0 +1,38 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.repository.StatsRepository;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+
+@Component
+@RequiredArgsConstructor
+public class HitWriter {
+    private final StatsRepository repository;
+    private final HitDictionary dictionary;
+    private final HitDeduplicator deduplicator;
+    private final HitDebouncer debouncer;
+    private final List<HitListener> listeners;
+    private final EntityManager entityManager;
+
+    /**
+     * Stores the hits and returns the stored ones, without those dropped as duplicates.
+     */
+    @Transactional
+    public List<EndpointHit> write(List<EndpointHit> batch) {
+        List<EndpointHit> hits = deduplicator.claim(batch);
+        if (hits.isEmpty()) {
+            return hits;
+        }
+        dictionary.encode(hits);
+        repository.saveAll(debouncer.collapse(hits));
+        repository.flush();
+        entityManager.clear();
+        listeners.forEach(listener -> listener.onHits(hits));
+        return hits;
+    }
+}
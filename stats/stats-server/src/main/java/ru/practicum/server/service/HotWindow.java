@@ -0,0 +1,175 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.MinuteHits;
+import ru.practicum.server.sketch.LongLongMap;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Per-minute hit counters for the last stats.hot-window.hours hours, kept in memory so that the recent part of a
+ * /stats range is answered without touching the database. Each (app, uri) holds its own epoch minute counters, the
+ * keys being split over lock-guarded stripes and indexed by uri, so that a query only reads the uris it asks for. A
+ * key is dropped once all its minutes have left the window.
+ */
+@Component
+@Slf4j
+public class HotWindow implements HitListener {
+    private static final int MINUTES_PER_KEY = 8;
+    private final HitStore hitStore;
+    private final boolean enabled;
+    private final long windowMinutes;
+    private final Map<Long, LongLongMap>[] stripes;
+    private final Map<Integer, Set<Long>> keysByUri = new ConcurrentHashMap<>();
+
+    public HotWindow(HitStore hitStore,
+                     @Value("${stats.hot-window.enabled:true}") boolean enabled,
+                     @Value("${stats.hot-window.hours:24}") int hours,
+                     @Value("${stats.hot-window.stripes:64}") int stripes) {
+        this.hitStore = hitStore;
+        this.enabled = enabled;
+        this.windowMinutes = hours * 60L;
+        this.stripes = newStripes(Integer.highestOneBit(Math.max(stripes, 1)));
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        List<MinuteHits> minutes = hitStore.countHitsByMinuteSince(coveredFrom());
+        for (MinuteHits minute : minutes) {
+            add(HitDictionary.key(minute.getAppId(), minute.getUriId()), epochMinute(minute.getMinute()),
+                    minute.getHits());
+        }
+        log.info("Hot window loaded {} minute counters", minutes.size());
+    }
+
+    /**
+     * Start of the minutes held in memory, or null when the window is disabled.
+     */
+    public LocalDateTime coveredFrom() {
+        if (!enabled) {
+            return null;
+        }
+        return TimeBuckets.ceil(LocalDateTime.now().minusMinutes(windowMinutes), ChronoUnit.MINUTES);
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        AfterCommit.run(() -> addAll(hits));
+    }
+
+    public void sum(LocalDateTime from, LocalDateTime to, List<Integer> uriIds, Map<Long, Long> totals) {
+        long fromMinute = epochMinute(from);
+        long toMinute = epochMinute(to);
+        if (uriIds == null) {
+            for (Map<Long, LongLongMap> stripe : stripes) {
+                synchronized (stripe) {
+                    stripe.forEach((key, minutes) -> sum(key, minutes, fromMinute, toMinute, totals));
+                }
+            }
+            return;
+        }
+        for (Integer uriId : new HashSet<>(uriIds)) {
+            for (Long key : keysByUri.getOrDefault(uriId, Set.of())) {
+                Map<Long, LongLongMap> stripe = stripe(key);
+                synchronized (stripe) {
+                    LongLongMap minutes = stripe.get(key);
+                    if (minutes != null) {
+                        sum(key, minutes, fromMinute, toMinute, totals);
+                    }
+                }
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${stats.hot-window.evict-interval-ms:60000}")
+    public void evict() {
+        if (!enabled) {
+            return;
+        }
+        long fromMinute = epochMinute(coveredFrom());
+        for (Map<Long, LongLongMap> stripe : stripes) {
+            synchronized (stripe) {
+                Iterator<Map.Entry<Long, LongLongMap>> entries = stripe.entrySet().iterator();
+                while (entries.hasNext()) {
+                    Map.Entry<Long, LongLongMap> entry = entries.next();
+                    entry.getValue().retainKeys(minute -> minute >= fromMinute);
+                    if (entry.getValue().size() == 0) {
+                        entries.remove();
+                        keysByUri.computeIfPresent(HitDictionary.uriId(entry.getKey()), (uriId, keys) -> {
+                            keys.remove(entry.getKey());
+                            return keys.isEmpty() ? null : keys;
+                        });
+                    }
+                }
+            }
+        }
+    }
+
+    private void addAll(List<EndpointHit> hits) {
+        long fromMinute = epochMinute(coveredFrom());
+        for (EndpointHit hit : hits) {
+            long minute = epochMinute(hit.getTimestamp());
+            if (minute >= fromMinute) {
+                add(HitDictionary.key(hit.getAppId(), hit.getUriId()), minute, 1);
+            }
+        }
+    }
+
+    private void add(long key, long minute, long hits) {
+        Map<Long, LongLongMap> stripe = stripe(key);
+        synchronized (stripe) {
+            stripe.computeIfAbsent(key, k -> {
+                keysByUri.compute(HitDictionary.uriId(k), (uriId, keys) -> {
+                    Set<Long> uriKeys = keys == null ? ConcurrentHashMap.newKeySet() : keys;
+                    uriKeys.add(k);
+                    return uriKeys;
+                });
+                return new LongLongMap(MINUTES_PER_KEY);
+            }).addTo(minute, hits);
+        }
+    }
+
+    private Map<Long, LongLongMap> stripe(long key) {
+        return stripes[Long.hashCode(key) & (stripes.length - 1)];
+    }
+
+    private static void sum(long key, LongLongMap minutes, long fromMinute, long toMinute, Map<Long, Long> totals) {
+        long[] hits = {0};
+        minutes.forEach((minute, count) -> {
+            if (minute >= fromMinute && minute < toMinute) {
+                hits[0] += count;
+            }
+        });
+        if (hits[0] > 0) {
+            totals.merge(key, hits[0], Long::sum);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<Long, LongLongMap>[] newStripes(int count) {
+        Map<Long, LongLongMap>[] stripes = new Map[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new HashMap<>();
+        }
+        return stripes;
+    }
+
+    private static long epochMinute(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) / 60;
+    }
+}
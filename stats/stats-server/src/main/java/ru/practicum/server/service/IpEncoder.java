@@ -0,0 +1,95 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.IpDictionaryEntry;
+import ru.practicum.server.repository.IpDictionaryRepository;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps visitor ips to longs for the bitmap engine and the segment store: an IPv4 address is its own 32-bit value,
+ * anything else gets 2^32 plus its id in stats_ip_dictionary.
+ */
+@Component
+@RequiredArgsConstructor
+public class IpEncoder {
+    /**
+     * Code of a hit without an ip (legacy rows whose ip did not parse); never a visitor.
+     */
+    public static final long NO_IP = -1L;
+    private static final long DICTIONARY_OFFSET = 1L << 32;
+    private static final int MAX_CACHE_SIZE = 100_000;
+    private final IpDictionaryRepository repository;
+    private final Map<String, Long> cache = new ConcurrentHashMap<>();
+
+    public Map<String, Long> encodeAll(Collection<String> ips) {
+        Map<String, Long> codes = new HashMap<>();
+        Set<String> missing = resolveKnown(ips, codes);
+        if (!missing.isEmpty()) {
+            repository.insertAllIfAbsent(missing);
+            lookup(missing, codes);
+        }
+        return codes;
+    }
+
+    public Map<String, Long> lookupAll(Collection<String> ips) {
+        Map<String, Long> codes = new HashMap<>();
+        Set<String> missing = resolveKnown(ips, codes);
+        if (!missing.isEmpty()) {
+            lookup(missing, codes);
+        }
+        return codes;
+    }
+
+    public Map<Long, String> decodeAll(Collection<Long> codes) {
+        Map<Long, String> ips = new HashMap<>();
+        Set<Long> ids = new HashSet<>();
+        for (Long code : codes) {
+            if (code < DICTIONARY_OFFSET) {
+                ips.put(code, (code >>> 24) + "." + ((code >>> 16) & 0xFF) + "." + ((code >>> 8) & 0xFF) + "."
+                        + (code & 0xFF));
+            } else {
+                ids.add(code - DICTIONARY_OFFSET);
+            }
+        }
+        if (!ids.isEmpty()) {
+            for (IpDictionaryEntry entry : repository.findAllByIdIn(ids)) {
+                ips.put(DICTIONARY_OFFSET + entry.getId(), entry.getIp());
+            }
+        }
+        return ips;
+    }
+
+    private Set<String> resolveKnown(Collection<String> ips, Map<String, Long> codes) {
+        Set<String> missing = new HashSet<>();
+        for (String ip : ips) {
+            long ipv4 = IpAddressConverter.parseIpv4(ip);
+            Long code = ipv4 >= 0 ? Long.valueOf(ipv4) : cache.get(ip);
+            if (code != null) {
+                codes.put(ip, code);
+            } else {
+                missing.add(ip);
+            }
+        }
+        return missing;
+    }
+
+    private void lookup(Set<String> ips, Map<String, Long> codes) {
+        Map<String, Long> found = new HashMap<>();
+        for (IpDictionaryEntry entry : repository.findAllByIpIn(ips)) {
+            found.put(entry.getIp(), DICTIONARY_OFFSET + entry.getId());
+        }
+        codes.putAll(found);
+        AfterCommit.run(() -> cacheAll(found));
+    }
+
+    private void cacheAll(Map<String, Long> codes) {
+        if (cache.size() + codes.size() > MAX_CACHE_SIZE) {
+            cache.clear();
+        }
+        cache.putAll(codes);
+    }
+}
@@ -0,0 +1,39 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitVisitor;
+import ru.practicum.server.model.MinuteHits;
+import ru.practicum.server.repository.StatsRepository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Component
+@ConditionalOnProperty(name = "stats.storage", havingValue = "jpa", matchIfMissing = true)
+@RequiredArgsConstructor
+public class JpaHitStore implements HitStore {
+    private final StatsRepository repository;
+
+    @Override
+    public List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return repository.countHits(from, to, uriIds);
+    }
+
+    @Override
+    public List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return repository.countUniqueHits(from, to, uriIds);
+    }
+
+    @Override
+    public List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return repository.findVisitors(from, to, uriIds);
+    }
+
+    @Override
+    public List<MinuteHits> countHitsByMinuteSince(LocalDateTime from) {
+        return repository.countHitsByMinuteSince(from);
+    }
+}
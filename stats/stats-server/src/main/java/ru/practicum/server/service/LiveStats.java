@@ -0,0 +1,213 @@
+package ru.practicum.server.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.exception.OverloadedException;
+import ru.practicum.server.mapper.ViewStatsMapper;
+import ru.practicum.server.model.EndpointHit;
+
+import javax.annotation.PreDestroy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Pushes the lifetime counts of subscribed uris as hits are ingested. The (app, uri) keys of committed batches are
+ * collected and every stats.live.interval-ms their counts are read from stats_total once and fanned out to the
+ * subscriptions matching each uri. Sends run on stats.live.send-threads threads; while one to a subscription is in
+ * progress newer counts replace its pending ones, so a slow client only delays itself. Idle subscriptions get an
+ * empty update every stats.live.heartbeat-ms, so that dead connections are noticed.
+ */
+@Service
+@Slf4j
+public class LiveStats implements HitListener {
+    private final TotalsService totalsService;
+    private final HitDictionary dictionary;
+    private final Set<Subscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final Set<Long> touched = ConcurrentHashMap.newKeySet();
+    private final ExecutorService sender;
+    private final boolean enabled;
+    private final int maxSubscriptions;
+    private final long heartbeatMillis;
+
+    public LiveStats(TotalsService totalsService,
+                     HitDictionary dictionary,
+                     MeterRegistry meterRegistry,
+                     @Value("${stats.live.enabled:true}") boolean enabled,
+                     @Value("${stats.live.max-subscriptions:10000}") int maxSubscriptions,
+                     @Value("${stats.live.send-threads:4}") int sendThreads,
+                     @Value("${stats.live.heartbeat-ms:15000}") long heartbeatMillis) {
+        this.totalsService = totalsService;
+        this.dictionary = dictionary;
+        this.enabled = enabled;
+        this.maxSubscriptions = maxSubscriptions;
+        this.heartbeatMillis = heartbeatMillis;
+        this.sender = Executors.newFixedThreadPool(sendThreads, runnable -> {
+            Thread thread = new Thread(runnable, "stats-live");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Gauge.builder("stats.live.subscriptions", subscriptions, Set::size)
+                .description("Open live stats subscriptions")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Subscribes the sink to the counts of the uris, which may end in /* or /**, or of every uri without any. The
+     * current counts are sent first. The sink gets an empty list as a heartbeat and, once it throws, is unsubscribed.
+     */
+    public Subscription subscribe(List<String> uris, boolean unique, Consumer<List<ViewStatsDto>> sink) {
+        if (!enabled || !totalsService.canAnswer(unique, true)) {
+            throw new DataException("Поток статистики требует stats.live.enabled=true, stats.totals.enabled=true, " +
+                    "а для unique — stats.sketch.enabled=true");
+        }
+        List<Integer> uriIds = dictionary.findUriIds(uris);
+        if (subscriptions.size() >= maxSubscriptions) {
+            throw new OverloadedException("Превышено число подписок на поток статистики: " + maxSubscriptions);
+        }
+        Subscription subscription = new Subscription(uris, unique, sink);
+        subscriptions.add(subscription);
+        if (uriIds == null || !uriIds.isEmpty()) {
+            subscription.offer(counts(uriIds, unique));
+        }
+        return subscription;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled || subscriptions.isEmpty()) {
+            return;
+        }
+        Set<Long> keys = hits.stream()
+                .map(hit -> HitDictionary.key(hit.getAppId(), hit.getUriId()))
+                .collect(Collectors.toSet());
+        AfterCommit.run(() -> touched.addAll(keys));
+    }
+
+    @Scheduled(fixedDelayString = "${stats.live.interval-ms:1000}")
+    public void publish() {
+        List<Long> keys = new ArrayList<>();
+        for (Iterator<Long> iterator = touched.iterator(); iterator.hasNext(); ) {
+            keys.add(iterator.next());
+            iterator.remove();
+        }
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        Map<Boolean, List<ViewStatsDto>> updates = new HashMap<>();
+        if (!keys.isEmpty()) {
+            Set<Integer> uriIds = keys.stream().map(HitDictionary::uriId).collect(Collectors.toSet());
+            for (Subscription subscription : subscriptions) {
+                List<ViewStatsDto> matching = updates
+                        .computeIfAbsent(subscription.unique, unique -> counts(uriIds, unique)).stream()
+                        .filter(stats -> subscription.matches(stats.getUri()))
+                        .collect(Collectors.toList());
+                if (!matching.isEmpty()) {
+                    subscription.offer(matching);
+                }
+            }
+        }
+        long idleSince = System.currentTimeMillis() - heartbeatMillis;
+        subscriptions.stream()
+                .filter(subscription -> subscription.lastSent < idleSince)
+                .forEach(subscription -> subscription.offer(List.of()));
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sender.shutdownNow();
+    }
+
+    private List<ViewStatsDto> counts(Collection<Integer> uriIds, boolean unique) {
+        return ViewStatsMapper.listToDto(dictionary.toViewStats(totalsService.findLifetime(uriIds, unique)));
+    }
+
+    /**
+     * Uri matches a subscribed uri, or a /* or /** pattern, as {@link HitDictionary#findUriIds} resolves them.
+     */
+    private static boolean matches(String pattern, String uri) {
+        if (pattern.endsWith("/**")) {
+            String prefix = pattern.substring(0, pattern.length() - 2);
+            return uri.startsWith(prefix) && uri.length() > prefix.length();
+        }
+        if (pattern.endsWith("/*")) {
+            String prefix = pattern.substring(0, pattern.length() - 1);
+            return uri.startsWith(prefix) && uri.length() > prefix.length()
+                    && uri.indexOf('/', prefix.length()) < 0;
+        }
+        return pattern.equals(uri);
+    }
+
+    public final class Subscription {
+        private final List<String> uris;
+        private final boolean unique;
+        private final Consumer<List<ViewStatsDto>> sink;
+        private final Map<String, ViewStatsDto> pending = new LinkedHashMap<>();
+        private boolean heartbeat;
+        private boolean sending;
+        private volatile long lastSent = System.currentTimeMillis();
+
+        private Subscription(List<String> uris, boolean unique, Consumer<List<ViewStatsDto>> sink) {
+            this.uris = uris;
+            this.unique = unique;
+            this.sink = sink;
+        }
+
+        public void close() {
+            subscriptions.remove(this);
+        }
+
+        private boolean matches(String uri) {
+            return uris == null || uris.stream().anyMatch(pattern -> LiveStats.matches(pattern, uri));
+        }
+
+        private void offer(List<ViewStatsDto> stats) {
+            synchronized (this) {
+                stats.forEach(row -> pending.put(row.getApp() + ' ' + row.getUri(), row));
+                heartbeat |= stats.isEmpty();
+                if (sending) {
+                    return;
+                }
+                sending = true;
+            }
+            try {
+                sender.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                close();
+            }
+        }
+
+        private void drain() {
+            while (true) {
+                List<ViewStatsDto> stats;
+                synchronized (this) {
+                    if (pending.isEmpty() && !heartbeat) {
+                        sending = false;
+                        return;
+                    }
+                    stats = new ArrayList<>(pending.values());
+                    pending.clear();
+                    heartbeat = false;
+                }
+                try {
+                    sink.accept(stats);
+                    lastSent = System.currentTimeMillis();
+                } catch (RuntimeException e) {
+                    log.debug("Closing live stats subscription: {}", e.getMessage());
+                    close();
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+@Component
+@Slf4j
+public class PartitionManager {
+    private static final String PARTITION_PREFIX = "stats_p";
+    private static final Pattern PARTITION_NAME = Pattern.compile(PARTITION_PREFIX + "(\\d{6}|\\d{8})");
+    private static final DateTimeFormatter DAY_SUFFIX = DateTimeFormatter.ofPattern("yyyyMMdd");
+    private static final DateTimeFormatter MONTH_SUFFIX = DateTimeFormatter.ofPattern("yyyyMM");
+    private static final int DELETE_BATCH_SIZE = 10000;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ChronoUnit period;
+    private final int premake;
+    private final int retentionDays;
+
+    public PartitionManager(JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            @Value("${stats.partition.period:day}") String period,
+                            @Value("${stats.partition.premake:7}") int premake,
+                            @Value("${stats.retention.days:0}") int retentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.period = "month".equalsIgnoreCase(period) ? ChronoUnit.MONTHS : ChronoUnit.DAYS;
+        this.premake = premake;
+        this.retentionDays = retentionDays;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    @Scheduled(cron = "${stats.partition.cron:0 5 0 * * *}")
+    public void maintain() {
+        if (!isPartitioned()) {
+            log.warn("Table stats is not partitioned, partition maintenance skipped");
+            return;
+        }
+        LocalDate current = periodStart(LocalDate.now());
+        for (int i = 0; i <= premake; i++) {
+            createPartition(current.plus(i, period));
+        }
+        createPartitions(jdbcTemplate.queryForList("SELECT DISTINCT timestamp::date FROM stats_default",
+                LocalDate.class));
+        if (retentionDays > 0) {
+            dropExpired(LocalDate.now().minusDays(retentionDays));
+        }
+    }
+
+    /**
+     * Creates the partitions holding the days, so that hits written for past days do not pile up in stats_default.
+     * Days already past retention are left to it.
+     */
+    public void createPartitions(Collection<LocalDate> days) {
+        if (days.isEmpty() || !isPartitioned()) {
+            return;
+        }
+        LocalDate cutoff = retentionDays > 0 ? LocalDate.now().minusDays(retentionDays) : null;
+        days.stream()
+                .map(this::periodStart)
+                .distinct()
+                .sorted()
+                .filter(from -> cutoff == null || from.plus(1, period).isAfter(cutoff))
+                .forEach(this::createPartition);
+    }
+
+    private boolean isPartitioned() {
+        Integer count = jdbcTemplate.queryForObject("SELECT count(*) FROM pg_partitioned_table " +
+                "WHERE partrelid = to_regclass('stats')", Integer.class);
+        return count != null && count > 0;
+    }
+
+    /**
+     * Creates the partition unless it exists. The check is repeated under the stats_default lock, which every
+     * creator takes, so that the scheduled maintenance and an import creating the same partition do not race.
+     */
+    private void createPartition(LocalDate from) {
+        String name = partitionName(from);
+        LocalDate to = from.plus(1, period);
+        if (exists(name)) {
+            return;
+        }
+        Boolean created = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE stats_default IN EXCLUSIVE MODE");
+            if (exists(name)) {
+                return false;
+            }
+            jdbcTemplate.execute("CREATE TABLE " + name + " (LIKE stats INCLUDING DEFAULTS)");
+            jdbcTemplate.update("INSERT INTO " + name + " SELECT * FROM stats_default " +
+                    "WHERE timestamp >= ? AND timestamp < ?", from, to);
+            jdbcTemplate.update("DELETE FROM stats_default WHERE timestamp >= ? AND timestamp < ?", from, to);
+            jdbcTemplate.execute("ALTER TABLE stats ATTACH PARTITION " + name +
+                    " FOR VALUES FROM ('" + from + "') TO ('" + to + "')");
+            return true;
+        });
+        if (Boolean.TRUE.equals(created)) {
+            log.info("Created partition {} for [{}, {})", name, from, to);
+        }
+    }
+
+    private boolean exists(String table) {
+        return Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT to_regclass(?) IS NOT NULL", Boolean.class,
+                table));
+    }
+
+    private void dropExpired(LocalDate cutoff) {
+        List<String> partitions = jdbcTemplate.queryForList("SELECT c.relname FROM pg_inherits i " +
+                "JOIN pg_class c ON c.oid = i.inhrelid " +
+                "WHERE i.inhparent = 'stats'::regclass", String.class);
+        for (String name : partitions) {
+            LocalDate end = partitionEnd(name);
+            if (end != null && !end.isAfter(cutoff)) {
+                jdbcTemplate.execute("DROP TABLE " + name);
+                log.info("Dropped expired partition {}", name);
+            }
+        }
+        int deleted;
+        do {
+            deleted = jdbcTemplate.update("DELETE FROM stats_default WHERE ctid IN (SELECT ctid FROM stats_default " +
+                    "WHERE timestamp < ? LIMIT ?)", cutoff, DELETE_BATCH_SIZE);
+        } while (deleted == DELETE_BATCH_SIZE);
+    }
+
+    private LocalDate periodStart(LocalDate date) {
+        return period == ChronoUnit.MONTHS ? date.withDayOfMonth(1) : date;
+    }
+
+    private String partitionName(LocalDate from) {
+        return PARTITION_PREFIX + (period == ChronoUnit.MONTHS ? MONTH_SUFFIX : DAY_SUFFIX).format(from);
+    }
+
+    private static LocalDate partitionEnd(String name) {
+        Matcher matcher = PARTITION_NAME.matcher(name);
+        if (!matcher.matches()) {
+            return null;
+        }
+        String suffix = matcher.group(1);
+        if (suffix.length() == 8) {
+            return LocalDate.parse(suffix, DAY_SUFFIX).plusDays(1);
+        }
+        return LocalDate.parse(suffix + "01", DAY_SUFFIX).plusMonths(1);
+    }
+}
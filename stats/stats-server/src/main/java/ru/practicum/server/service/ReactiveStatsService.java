@@ -0,0 +1,101 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.mapper.HistogramBucketMapper;
+import ru.practicum.server.mapper.ViewStatsMapper;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.ViewStats;
+import ru.practicum.server.repository.ReactiveStatsRepository;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+/**
+ * {@link StatsService} for the reactive server. NDJSON rows and histograms are read through R2DBC, everything that
+ * still goes through JPA or JDBC, writes included, runs on the stats-jdbc scheduler sized to the connection pool, so
+ * that event loop threads never wait on the database.
+ */
+@Service
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@RequiredArgsConstructor
+public class ReactiveStatsService {
+    private final StatsService service;
+    private final HitDictionary dictionary;
+    private final RollupService rollupService;
+    private final HitCompactor compactor;
+    private final ReactiveStatsRepository repository;
+    private final Scheduler jdbcScheduler;
+    private final LiveStats liveStats;
+
+    public <T> Mono<T> blocking(Callable<T> call) {
+        return Mono.fromCallable(call).subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * Counts pushed by {@link LiveStats}, subscribed on the stats-jdbc scheduler as the current counts are read
+     * first. An empty list is a heartbeat.
+     */
+    public Flux<List<ViewStatsDto>> live(List<String> uris, boolean unique) {
+        return Flux.<List<ViewStatsDto>>create(sink -> {
+            LiveStats.Subscription subscription = liveStats.subscribe(uris, unique, sink::next);
+            sink.onDispose(subscription::close);
+        }).subscribeOn(jdbcScheduler);
+    }
+
+    /**
+     * Same rows as {@link StatsService#stream}, emitted as R2DBC reads them. Unique hits of compacted days are counted
+     * by the {@link UniqueCounter} before the first row is emitted.
+     */
+    public Flux<ViewStatsDto> stream(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
+        return blocking(() -> {
+            StatsServiceImpl.checkRange(start, end);
+            return Optional.ofNullable(dictionary.findUriIds(uris));
+        }).flatMapMany(found -> {
+            List<Integer> uriIds = found.orElse(null);
+            if (uriIds != null && uriIds.isEmpty()) {
+                return Flux.empty();
+            }
+            LocalDateTime from = compactor.alignStart(start);
+            LocalDateTime to = compactor.alignEnd(end);
+            if (unique && compactor.isCompacted(from)) {
+                return blocking(() -> {
+                    List<ViewStatsDto> rows = new ArrayList<>();
+                    service.stream(start, end, uris, true, rows::add);
+                    return rows;
+                }).flatMapIterable(rows -> rows);
+            }
+            Flux<ViewStats> rows = unique
+                    ? repository.streamUniqueHits(new HitRange(null, from, TimeBuckets.exclusiveEnd(to)), uriIds)
+                    : repository.streamHits(rollupService.hitRanges(from, to), uriIds);
+            return rows.map(ViewStatsMapper::toViewStatsDto);
+        });
+    }
+
+    public Flux<HistogramBucketDto> getHistogram(LocalDateTime start, LocalDateTime end, String uri,
+                                                 RollupGranularity bucket) {
+        return blocking(() -> {
+            StatsServiceImpl.checkRange(start, end);
+            compactor.checkBucket(start, bucket);
+            return dictionary.findUriIds(List.of(uri));
+        }).flatMapMany(uriIds -> {
+            if (uriIds.isEmpty()) {
+                return Flux.empty();
+            }
+            LocalDateTime from = compactor.alignStart(start);
+            LocalDateTime to = TimeBuckets.exclusiveEnd(compactor.alignEnd(end));
+            return repository.findHistogram(bucket, from, to, compactor.compactedTo(to), uriIds);
+        })
+                .map(HistogramBucketMapper::toHistogramBucketDto);
+    }
+}
@@ -0,0 +1,273 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.model.ViewStats;
+import ru.practicum.server.repository.RollupRepository;
+import ru.practicum.server.repository.StatsRepository;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * MINUTE and HOUR hit counts per (app, uri), incremented by the transaction storing the hits. Days before
+ * covered_from in stats_rollup_coverage, which starts at the day after the first run, may hold hits stored before
+ * the rollups were kept, e.g. those copied by the legacy schema migration or written with stats.rollup.enabled=false:
+ * they are counted from the raw hits while a background job recounts their rollups from stats one day at a time,
+ * newest first, down to the oldest raw day. To recount the rollups, delete the coverage row and restart.
+ */
+@Service
+@Slf4j
+public class RollupService implements HitListener {
+    private static final List<RollupGranularity> GRANULARITIES =
+            List.of(RollupGranularity.MINUTE, RollupGranularity.HOUR);
+    private static final int COVERAGE_ID = 1;
+    private static final String DELETE_HOUR = "DELETE FROM stats_rollup WHERE granularity IN (?, ?) " +
+            "AND bucket >= ? AND bucket < ?";
+    private static final String RECOUNT_HOUR = "INSERT INTO stats_rollup (granularity, app_id, uri_id, bucket, hits) " +
+            "SELECT ?, app_id, uri_id, date_trunc('minute', timestamp), sum(hits) FROM stats " +
+            "WHERE timestamp >= ? AND timestamp < ? GROUP BY app_id, uri_id, date_trunc('minute', timestamp) " +
+            "UNION ALL SELECT ?, app_id, uri_id, CAST(? AS timestamp), sum(hits) FROM stats " +
+            "WHERE timestamp >= ? AND timestamp < ? GROUP BY app_id, uri_id";
+    private final RollupRepository rollupRepository;
+    private final StatsRepository statsRepository;
+    private final HitStore hitStore;
+    private final HotWindow hotWindow;
+    private final HitCompactor compactor;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private volatile LocalDate coveredFrom;
+
+    public RollupService(RollupRepository rollupRepository,
+                         StatsRepository statsRepository,
+                         HitStore hitStore,
+                         HotWindow hotWindow,
+                         HitCompactor compactor,
+                         JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         @Value("${stats.rollup.enabled:true}") boolean enabled) {
+        this.rollupRepository = rollupRepository;
+        this.statsRepository = statsRepository;
+        this.hitStore = hitStore;
+        this.hotWindow = hotWindow;
+        this.compactor = compactor;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+    }
+
+    @PostConstruct
+    public void loadCoverage() {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("INSERT INTO stats_rollup_coverage (id, covered_from) " +
+                "SELECT ?, GREATEST(CURRENT_DATE, max(timestamp)::date) + 1 FROM stats ON CONFLICT (id) DO NOTHING",
+                COVERAGE_ID);
+        coveredFrom = jdbcTemplate.queryForObject("SELECT covered_from FROM stats_rollup_coverage WHERE id = ?",
+                Date.class, COVERAGE_ID).toLocalDate();
+    }
+
+    /**
+     * Recounts the MINUTE and HOUR rollups of the newest uncovered day that still has raw hits and moves covered_from
+     * back to it. One day per run, so that the other scheduled jobs are not held up. Compacted days lie below the
+     * oldest raw day and stay uncovered, as they are counted from their DAY rollups.
+     */
+    @Scheduled(fixedDelayString = "${stats.rollup.backfill-delay-ms:1000}")
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        LocalDate day = coveredFrom.minusDays(1);
+        Timestamp first = jdbcTemplate.queryForObject("SELECT min(timestamp) FROM stats", Timestamp.class);
+        if (first == null || day.isBefore(first.toLocalDateTime().toLocalDate())) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        int rollups = 0;
+        for (LocalDateTime hour = day.atStartOfDay(); hour.toLocalDate().equals(day); hour = hour.plusHours(1)) {
+            LocalDateTime from = hour;
+            rollups += transactionTemplate.execute(status -> recountHour(from));
+        }
+        if (jdbcTemplate.update("UPDATE stats_rollup_coverage SET covered_from = ? WHERE id = ? AND covered_from > ?",
+                Date.valueOf(day), COVERAGE_ID, Date.valueOf(day)) > 0) {
+            coveredFrom = day;
+        } else {
+            loadCoverage();
+        }
+        log.info("Recounted {} rollups of {} from stats in {} ms", rollups, day,
+                System.currentTimeMillis() - startedAt);
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<HitRollupId, Long> counts = new HashMap<>();
+        for (RollupGranularity granularity : GRANULARITIES) {
+            for (EndpointHit hit : hits) {
+                counts.merge(new HitRollupId(granularity, hit.getAppId(), hit.getUriId(),
+                        hit.getTimestamp().truncatedTo(granularity.getUnit())), 1L, Long::sum);
+            }
+        }
+        rollupRepository.incrementAll(counts);
+    }
+
+    /**
+     * Hits of [start, end]: minutes still in the hot window from memory, unless they are already compacted and
+     * counted from the DAY rollups, the rest from the rollups and raw edges.
+     */
+    public Map<Long, Long> countHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        LocalDateTime endExclusive = TimeBuckets.exclusiveEnd(end);
+        Map<Long, Long> totals = new HashMap<>();
+        LocalDateTime hotFrom = hotWindow.coveredFrom();
+        LocalDateTime compactedBefore = compactor.compactedBefore();
+        LocalDateTime memoryFrom = hotFrom == null ? null
+                : max(TimeBuckets.ceil(start, ChronoUnit.MINUTES), hotFrom);
+        if (memoryFrom != null && compactedBefore != null) {
+            memoryFrom = max(memoryFrom, compactedBefore);
+        }
+        LocalDateTime memoryTo = endExclusive.truncatedTo(ChronoUnit.MINUTES);
+        if (memoryFrom != null && memoryFrom.isBefore(memoryTo)) {
+            hotWindow.sum(memoryFrom, memoryTo, uriIds, totals);
+            countStored(start, memoryFrom, uriIds, totals);
+            countStored(memoryTo, endExclusive, uriIds, totals);
+        } else {
+            countStored(start, endExclusive, uriIds, totals);
+        }
+        countCompacted(start, endExclusive, uriIds, totals);
+        return totals;
+    }
+
+    /**
+     * Adds the DAY rollup hits of the whole compacted days in [from, to), which the finer rollups no longer hold.
+     */
+    void countCompacted(LocalDateTime from, LocalDateTime to, List<Integer> uriIds, Map<Long, Long> totals) {
+        LocalDateTime compactedTo = compactor.compactedTo(to);
+        if (compactedTo != null && from.isBefore(compactedTo)) {
+            HitDictionary.merge(totals, rollupRepository.sumHits(RollupGranularity.DAY,
+                    TimeBuckets.ceil(from, ChronoUnit.DAYS), compactedTo, uriIds));
+        }
+    }
+
+    /**
+     * Streams the totals from the database alone, rollups and raw edges summed in a single query, so that no
+     * per-key state is held in memory.
+     */
+    public void streamHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, Consumer<ViewStats> consumer) {
+        statsRepository.streamHits(hitRanges(start, end), uriIds, consumer);
+    }
+
+    /**
+     * Slices of [start, end] to sum hits over: rollup buckets, raw edges and whole compacted days.
+     */
+    public List<HitRange> hitRanges(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime endExclusive = TimeBuckets.exclusiveEnd(end);
+        List<HitRange> ranges = new ArrayList<>();
+        LocalDateTime rolledFrom = rolledFrom(start, endExclusive);
+        if (start.isBefore(rolledFrom)) {
+            ranges.add(new HitRange(null, start, rolledFrom));
+        }
+        TimeBuckets.split(rolledFrom, endExclusive, GRANULARITIES, new TimeBuckets.RangeVisitor() {
+            @Override
+            public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                ranges.add(new HitRange(granularity, from, to));
+            }
+
+            @Override
+            public void raw(LocalDateTime from, LocalDateTime to) {
+                ranges.add(new HitRange(null, from, to));
+            }
+        });
+        LocalDateTime compactedTo = compactor.compactedTo(endExclusive);
+        if (compactedTo != null && start.isBefore(compactedTo)) {
+            ranges.add(new HitRange(RollupGranularity.DAY, TimeBuckets.ceil(start, ChronoUnit.DAYS), compactedTo));
+        }
+        return ranges;
+    }
+
+    /**
+     * DAY rollup hits of the whole compacted days in each uri's window. The rest of the windows is still in stats.
+     */
+    public List<HitCount> countCompactedHits(List<UriHitRange> ranges) {
+        List<UriHitRange> compacted = new ArrayList<>();
+        for (UriHitRange range : ranges) {
+            LocalDateTime from = TimeBuckets.ceil(range.getFrom(), ChronoUnit.DAYS);
+            LocalDateTime to = compactor.compactedTo(range.getTo());
+            if (to != null && from.isBefore(to)) {
+                compacted.add(new UriHitRange(range.getUriId(), from, to));
+            }
+        }
+        return compacted.isEmpty() ? List.of() : rollupRepository.sumHits(RollupGranularity.DAY, compacted);
+    }
+
+    void countStored(LocalDateTime from, LocalDateTime to, List<Integer> uriIds, Map<Long, Long> totals) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        LocalDateTime rolledFrom = rolledFrom(from, to);
+        if (from.isBefore(rolledFrom)) {
+            HitDictionary.merge(totals, hitStore.countHits(from, rolledFrom, uriIds));
+        }
+        TimeBuckets.split(rolledFrom, to, GRANULARITIES, new TimeBuckets.RangeVisitor() {
+            @Override
+            public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                HitDictionary.merge(totals, rollupRepository.sumHits(granularity, from, to, uriIds));
+            }
+
+            @Override
+            public void raw(LocalDateTime from, LocalDateTime to) {
+                HitDictionary.merge(totals, hitStore.countHits(from, to, uriIds));
+            }
+        });
+    }
+
+    /**
+     * Start of the part of [from, to) that the rollups cover, or to when they cover none of it.
+     */
+    private LocalDateTime rolledFrom(LocalDateTime from, LocalDateTime to) {
+        if (!enabled) {
+            return to;
+        }
+        LocalDateTime coveredStart = coveredFrom.atStartOfDay();
+        return coveredStart.isAfter(to) ? to : max(from, coveredStart);
+    }
+
+    /**
+     * Replaces the MINUTE and HOUR rollups of one hour with sums of its raw hits. The table lock keeps ingest and
+     * compaction from changing those rollups in between; it is held for one hour's recount only.
+     */
+    private int recountHour(LocalDateTime hour) {
+        Timestamp from = Timestamp.valueOf(hour);
+        Timestamp to = Timestamp.valueOf(hour.plusHours(1));
+        jdbcTemplate.execute("LOCK TABLE stats_rollup IN SHARE ROW EXCLUSIVE MODE");
+        jdbcTemplate.update(DELETE_HOUR, RollupGranularity.MINUTE.name(), RollupGranularity.HOUR.name(), from, to);
+        return jdbcTemplate.update(RECOUNT_HOUR, RollupGranularity.MINUTE.name(), from, to,
+                RollupGranularity.HOUR.name(), from, from, to);
+    }
+
+    private static LocalDateTime max(LocalDateTime first, LocalDateTime second) {
+        return first.isAfter(second) ? first : second;
+    }
+}
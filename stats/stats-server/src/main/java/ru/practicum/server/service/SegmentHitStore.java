@@ -0,0 +1,344 @@
+package ru.practicum.server.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitCount;
+import ru.practicum.server.model.HitVisitor;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.MinuteHits;
+import ru.practicum.server.sketch.LongLongMap;
+import ru.practicum.server.storage.Segment;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.PreparedStatement;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Embedded raw-hit store for stats.storage=segment: committed hits are appended to memory-mapped columnar
+ * {@link Segment} files under stats.segment.dir, and range scans read the time, app, uri and ip columns
+ * sequentially, skipping segments by their min/max time. Postgres stays the system of record: the segments are
+ * rebuilt from the stats table whenever the previous run did not shut down cleanly.
+ */
+@Component
+@ConditionalOnProperty(name = "stats.storage", havingValue = "segment")
+@Slf4j
+public class SegmentHitStore implements HitStore, HitListener {
+    private static final String CLEAN_MARKER = "CLEAN";
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".dat";
+    private static final int REBUILD_BATCH_SIZE = 10000;
+    private final IpEncoder ipEncoder;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final Path directory;
+    private final int segmentRows;
+    private final int retentionDays;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final Object writeLock = new Object();
+    private int nextSegment;
+
+    public SegmentHitStore(IpEncoder ipEncoder,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           @Value("${stats.segment.dir:segments}") String directory,
+                           @Value("${stats.segment.rows:1048576}") int segmentRows,
+                           @Value("${stats.retention.days:0}") int retentionDays) {
+        if (segmentRows < 1 || segmentRows > Segment.maxCapacity()) {
+            throw new IllegalStateException("stats.segment.rows must be between 1 and " + Segment.maxCapacity());
+        }
+        this.ipEncoder = ipEncoder;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.directory = Paths.get(directory);
+        this.segmentRows = segmentRows;
+        this.retentionDays = retentionDays;
+    }
+
+    @PostConstruct
+    public void open() throws IOException {
+        Files.createDirectories(directory);
+        boolean clean = Files.deleteIfExists(directory.resolve(CLEAN_MARKER));
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(path -> path.getFileName().toString().startsWith(SEGMENT_PREFIX))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (clean && openAll(files)) {
+            nextSegment = files.size();
+            log.info("Opened {} hit segments in {}", files.size(), directory);
+            return;
+        }
+        for (Path file : files) {
+            Files.delete(file);
+        }
+        long rows = rebuild();
+        log.info("Rebuilt hit segments in {} from {} stats rows", directory, rows);
+    }
+
+    /**
+     * Opens the segments, or closes the ones opened and returns false when a file cannot be read, e.g. when it was
+     * written in an older format.
+     */
+    private boolean openAll(List<Path> files) throws IOException {
+        try {
+            for (Path file : files) {
+                segments.add(Segment.open(file));
+            }
+            return true;
+        } catch (IOException e) {
+            log.warn("Cannot open hit segments in {}, rebuilding them: {}", directory, e.getMessage());
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            segments.clear();
+            return false;
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            for (Segment segment : segments) {
+                segment.close();
+            }
+            Files.createFile(directory.resolve(CLEAN_MARKER));
+        }
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        Batch batch = encode(hits);
+        AfterCommit.run(() -> append(batch));
+    }
+
+    @Override
+    public List<HitCount> countHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        LongLongMap counts = new LongLongMap();
+        scan(from, to, uriIds, (segment, row) ->
+                counts.addTo(HitDictionary.key(segment.appId(row), segment.uriId(row)), segment.hits(row)));
+        List<HitCount> result = new ArrayList<>(counts.size());
+        counts.forEach((key, hits) -> result.add(new HitCount(HitDictionary.appId(key), HitDictionary.uriId(key),
+                hits)));
+        return result;
+    }
+
+    @Override
+    public List<HitCount> countUniqueHits(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        return visitors(from, to, uriIds).entrySet().stream()
+                .map(e -> new HitCount(HitDictionary.appId(e.getKey()), HitDictionary.uriId(e.getKey()),
+                        e.getValue().getLongCardinality()))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public List<HitVisitor> findVisitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        Map<Long, Roaring64NavigableMap> visitors = visitors(from, to, uriIds);
+        Roaring64NavigableMap allCodes = new Roaring64NavigableMap();
+        visitors.values().forEach(allCodes::or);
+        List<Long> codes = new ArrayList<>();
+        allCodes.forEach(codes::add);
+        Map<Long, String> ips = ipEncoder.decodeAll(codes);
+        List<HitVisitor> result = new ArrayList<>();
+        visitors.forEach((key, keyCodes) -> keyCodes.forEach(code -> result.add(new HitVisitor(
+                HitDictionary.appId(key), HitDictionary.uriId(key), ips.get(code)))));
+        return result;
+    }
+
+    @Override
+    public List<MinuteHits> countHitsByMinuteSince(LocalDateTime from) {
+        Map<Long, LongLongMap> minutes = new HashMap<>();
+        scan(from, LocalDateTime.MAX, null, (segment, row) ->
+                minutes.computeIfAbsent(HitDictionary.key(segment.appId(row), segment.uriId(row)),
+                        key -> new LongLongMap()).addTo(Math.floorDiv(segment.time(row), 60_000_000L),
+                        segment.hits(row)));
+        List<MinuteHits> result = new ArrayList<>();
+        minutes.forEach((key, counts) -> counts.forEach((minute, hits) -> result.add(new SegmentMinuteHits(
+                HitDictionary.appId(key), HitDictionary.uriId(key),
+                LocalDateTime.ofEpochSecond(minute * 60, 0, ZoneOffset.UTC), hits))));
+        return result;
+    }
+
+    @Scheduled(cron = "${stats.partition.cron:0 5 0 * * *}")
+    public void dropExpired() throws IOException {
+        if (retentionDays <= 0) {
+            return;
+        }
+        long cutoff = micros(LocalDateTime.now().minusDays(retentionDays));
+        synchronized (writeLock) {
+            for (Segment segment : new ArrayList<>(segments.subList(0, Math.max(segments.size() - 1, 0)))) {
+                if (segment.size() > 0 && segment.maxTime() < cutoff) {
+                    segments.remove(segment);
+                    segment.close();
+                    Files.delete(segment.getPath());
+                    log.info("Dropped expired hit segment {}", segment.getPath().getFileName());
+                }
+            }
+        }
+    }
+
+    private long rebuild() {
+        long[] rows = new long[1];
+        List<EndpointHit> pending = new ArrayList<>(REBUILD_BATCH_SIZE);
+        IpAddressConverter converter = new IpAddressConverter();
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.query(connection -> {
+                PreparedStatement statement = connection.prepareStatement(
+                        "SELECT app_id, uri_id, ip, timestamp, hits FROM stats");
+                statement.setFetchSize(REBUILD_BATCH_SIZE);
+                return statement;
+            }, (RowCallbackHandler) rs -> {
+                pending.add(EndpointHit.builder()
+                        .appId(rs.getInt("app_id"))
+                        .uriId(rs.getInt("uri_id"))
+                        .ip(converter.convertToEntityAttribute(rs.getBytes("ip")))
+                        .timestamp(rs.getTimestamp("timestamp").toLocalDateTime())
+                        .hits(rs.getInt("hits"))
+                        .build());
+                if (pending.size() == REBUILD_BATCH_SIZE) {
+                    rows[0] += pending.size();
+                    append(encode(pending));
+                    pending.clear();
+                }
+            });
+            rows[0] += pending.size();
+            append(encode(pending));
+        });
+        return rows[0];
+    }
+
+    private Batch encode(List<EndpointHit> hits) {
+        Map<String, Long> codes = ipEncoder.encodeAll(hits.stream()
+                .map(EndpointHit::getIp)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet()));
+        Batch batch = new Batch(hits.size());
+        for (EndpointHit hit : hits) {
+            batch.add(micros(hit.getTimestamp()), hit.getAppId(), hit.getUriId(),
+                    hit.getIp() == null ? IpEncoder.NO_IP : codes.get(hit.getIp()), hit.getHits());
+        }
+        return batch;
+    }
+
+    private void append(Batch batch) {
+        synchronized (writeLock) {
+            Segment segment = segments.isEmpty() ? newSegment() : segments.get(segments.size() - 1);
+            for (int i = 0; i < batch.size; i++) {
+                if (segment.isFull()) {
+                    segment.publish();
+                    segment = newSegment();
+                }
+                segment.append(batch.times[i], batch.appIds[i], batch.uriIds[i], batch.ips[i], batch.hits[i]);
+            }
+            segment.publish();
+        }
+    }
+
+    private Segment newSegment() {
+        Path path = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, nextSegment++, SEGMENT_SUFFIX));
+        try {
+            Segment segment = Segment.create(path, segmentRows);
+            segments.add(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private Map<Long, Roaring64NavigableMap> visitors(LocalDateTime from, LocalDateTime to, List<Integer> uriIds) {
+        Map<Long, Roaring64NavigableMap> visitors = new HashMap<>();
+        scan(from, to, uriIds, (segment, row) -> {
+            if (segment.ip(row) != IpEncoder.NO_IP) {
+                visitors.computeIfAbsent(HitDictionary.key(segment.appId(row), segment.uriId(row)),
+                        key -> new Roaring64NavigableMap()).addLong(segment.ip(row));
+            }
+        });
+        return visitors;
+    }
+
+    private void scan(LocalDateTime from, LocalDateTime to, List<Integer> uriIds, RowVisitor visitor) {
+        long fromTime = micros(from);
+        long toTime = to.equals(LocalDateTime.MAX) ? Long.MAX_VALUE : micros(to);
+        BitSet uriFilter = null;
+        if (uriIds != null) {
+            uriFilter = new BitSet();
+            uriIds.forEach(uriFilter::set);
+        }
+        for (Segment segment : segments) {
+            int size = segment.size();
+            if (size == 0 || segment.maxTime() < fromTime || segment.minTime() >= toTime) {
+                continue;
+            }
+            for (int row = 0; row < size; row++) {
+                long time = segment.time(row);
+                if (time >= fromTime && time < toTime && (uriFilter == null || uriFilter.get(segment.uriId(row)))) {
+                    visitor.visit(segment, row);
+                }
+            }
+        }
+    }
+
+    private static long micros(LocalDateTime time) {
+        return time.toEpochSecond(ZoneOffset.UTC) * 1_000_000L + time.getNano() / 1_000;
+    }
+
+    private interface RowVisitor {
+        void visit(Segment segment, int row);
+    }
+
+    private static final class Batch {
+        private final long[] times;
+        private final int[] appIds;
+        private final int[] uriIds;
+        private final long[] ips;
+        private final int[] hits;
+        private int size;
+
+        private Batch(int capacity) {
+            times = new long[capacity];
+            appIds = new int[capacity];
+            uriIds = new int[capacity];
+            ips = new long[capacity];
+            hits = new int[capacity];
+        }
+
+        private void add(long time, int appId, int uriId, long ip, int count) {
+            times[size] = time;
+            appIds[size] = appId;
+            uriIds[size] = uriId;
+            ips[size] = ip;
+            hits[size] = count;
+            size++;
+        }
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class SegmentMinuteHits implements MinuteHits {
+        private final Integer appId;
+        private final Integer uriId;
+        private final LocalDateTime minute;
+        private final Long hits;
+    }
+}
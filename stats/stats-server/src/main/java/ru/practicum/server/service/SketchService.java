@@ -0,0 +1,271 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitRollupId;
+import ru.practicum.server.model.HitSketch;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.repository.SketchRepository;
+import ru.practicum.server.repository.StatsRepository;
+import ru.practicum.server.sketch.HyperLogLog;
+
+import javax.annotation.PostConstruct;
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Stream;
+
+@Service
+@Slf4j
+public class SketchService implements HitListener {
+    private static final List<RollupGranularity> GRANULARITIES =
+            List.of(RollupGranularity.HOUR, RollupGranularity.DAY);
+    private static final Comparator<HitRollupId> LOCK_ORDER = Comparator.comparing(HitRollupId::getGranularity)
+            .thenComparing(HitRollupId::getAppId)
+            .thenComparing(HitRollupId::getUriId)
+            .thenComparing(HitRollupId::getBucket);
+    private static final byte[] EMPTY = new HyperLogLog().toBytes();
+    private static final IpAddressConverter IP_CONVERTER = new IpAddressConverter();
+    private static final int COVERAGE_ID = 1;
+    private static final int BACKFILL_BATCH_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final SketchRepository sketchRepository;
+    private final HitStore hitStore;
+    private final StatsRepository statsRepository;
+    private final boolean enabled;
+    private volatile LocalDate coveredFrom;
+
+    public SketchService(JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         SketchRepository sketchRepository,
+                         HitStore hitStore,
+                         StatsRepository statsRepository,
+                         @Value("${stats.sketch.enabled:true}") boolean enabled) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.sketchRepository = sketchRepository;
+        this.hitStore = hitStore;
+        this.statsRepository = statsRepository;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records where complete sketches start. Days before covered_from in stats_sketch_coverage may hold hits stored
+     * before sketches were kept, so they are read from the raw hits while {@link #backfill()} fills them in. On the
+     * first run the row is set to tomorrow, or to the day after the newest hit when that is later, unless stats_sketch
+     * already holds sketches: those were built in full, so coverage starts at the oldest day of hits or sketches. To
+     * rebuild the sketches, e.g. after running with
+     * stats.sketch.enabled=false, truncate stats_sketch, delete the coverage row and restart.
+     */
+    @PostConstruct
+    public void loadCoverage() {
+        if (!enabled) {
+            return;
+        }
+        jdbcTemplate.update("INSERT INTO stats_sketch_coverage (id, covered_from) SELECT ?, CASE " +
+                "WHEN EXISTS (SELECT 1 FROM stats_sketch) THEN LEAST(CURRENT_DATE, " +
+                "(SELECT min(timestamp)::date FROM stats), (SELECT min(bucket)::date FROM stats_sketch)) " +
+                "ELSE GREATEST(CURRENT_DATE, (SELECT max(timestamp)::date FROM stats)) + 1 END " +
+                "ON CONFLICT (id) DO NOTHING", COVERAGE_ID);
+        coveredFrom = jdbcTemplate.queryForObject("SELECT covered_from FROM stats_sketch_coverage WHERE id = ?",
+                Date.class, COVERAGE_ID).toLocalDate();
+    }
+
+    /**
+     * Fills the HOUR and DAY sketches of the newest uncovered day that has raw hits and moves covered_from back to it.
+     * One day per run, an hour per transaction, so that neither startup nor ingest waits on the backfill. Adding ips
+     * to a sketch twice changes nothing, so the job may overlap ingest and be resumed after a restart.
+     */
+    @Scheduled(fixedDelayString = "${stats.sketch.backfill-delay-ms:1000}")
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        Timestamp newest = jdbcTemplate.queryForObject("SELECT max(timestamp) FROM stats WHERE timestamp < ?",
+                Timestamp.class, Timestamp.valueOf(coveredFrom.atStartOfDay()));
+        if (newest == null) {
+            return;
+        }
+        LocalDate day = newest.toLocalDateTime().toLocalDate();
+        long startedAt = System.currentTimeMillis();
+        int sketches = 0;
+        for (LocalDateTime hour = day.atStartOfDay(); hour.toLocalDate().equals(day); hour = hour.plusHours(1)) {
+            sketches += backfillHour(hour);
+        }
+        if (jdbcTemplate.update("UPDATE stats_sketch_coverage SET covered_from = ? WHERE id = ? AND covered_from > ?",
+                Date.valueOf(day), COVERAGE_ID, Date.valueOf(day)) > 0) {
+            coveredFrom = day;
+        } else {
+            loadCoverage();
+        }
+        log.info("Backfilled {} sketches of {} from stats in {} ms", sketches, day,
+                System.currentTimeMillis() - startedAt);
+    }
+
+    /**
+     * Whether every raw hit is in the sketches, so that its day may be compacted down to its DAY sketch.
+     */
+    public boolean coversStoredHits() {
+        return enabled && Boolean.FALSE.equals(jdbcTemplate.queryForObject(
+                "SELECT EXISTS (SELECT 1 FROM stats WHERE timestamp < ?)", Boolean.class,
+                Timestamp.valueOf(coveredFrom.atStartOfDay())));
+    }
+
+    /**
+     * First day of complete sketches. Earlier days are counted from the raw hits.
+     */
+    public LocalDate coveredFrom() {
+        return coveredFrom;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<HitRollupId, HyperLogLog> additions = new TreeMap<>(LOCK_ORDER);
+        for (RollupGranularity granularity : GRANULARITIES) {
+            for (EndpointHit hit : hits) {
+                HitRollupId id = new HitRollupId(granularity, hit.getAppId(), hit.getUriId(),
+                        hit.getTimestamp().truncatedTo(granularity.getUnit()));
+                additions.computeIfAbsent(id, k -> new HyperLogLog()).add(hit.getIp());
+            }
+        }
+        merge(additions);
+    }
+
+    /**
+     * Approximate distinct ip count per (app, uri): whole hours and days are merged from the stored sketches and
+     * only the sub-hour edges of the range, and the days before covered_from, are read from raw hits. See
+     * {@link HyperLogLog} for the error bound.
+     */
+    public Map<Long, Long> countUniqueHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        LocalDateTime coveredStart = coveredFrom.atStartOfDay();
+        Map<Long, HyperLogLog> sketches = new HashMap<>();
+        TimeBuckets.split(start, TimeBuckets.exclusiveEnd(end), GRANULARITIES, new TimeBuckets.RangeVisitor() {
+            @Override
+            public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                if (from.isBefore(coveredStart)) {
+                    raw(from, to.isBefore(coveredStart) ? to : coveredStart);
+                }
+                if (to.isAfter(coveredStart)) {
+                    fromSketches(granularity, from.isAfter(coveredStart) ? from : coveredStart, to);
+                }
+            }
+
+            private void fromSketches(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                try (Stream<HitSketch> stream = sketchRepository.findAllInRange(granularity, from, to, uriIds)) {
+                    stream.forEach(sketch -> sketches.computeIfAbsent(HitDictionary.key(sketch.getAppId(),
+                            sketch.getUriId()), k -> new HyperLogLog()).merge(HyperLogLog.fromBytes(sketch.getSketch())));
+                }
+            }
+
+            @Override
+            public void raw(LocalDateTime from, LocalDateTime to) {
+                hitStore.findVisitors(from, to, uriIds).forEach(visitor -> sketches.computeIfAbsent(
+                        HitDictionary.key(visitor.getAppId(), visitor.getUriId()), k -> new HyperLogLog())
+                        .add(visitor.getIp()));
+            }
+        });
+        Map<Long, Long> totals = new HashMap<>();
+        sketches.forEach((key, hll) -> totals.put(key, hll.estimate()));
+        return totals;
+    }
+
+    /**
+     * Approximate distinct ip count per (app, uri) with each uri counted over its own window: whole covered days from
+     * the DAY sketches, the edges and the days before covered_from from raw hits, each in one query for all windows.
+     */
+    public Map<Long, Long> countUniqueHits(List<UriHitRange> ranges) {
+        LocalDateTime coveredStart = coveredFrom.atStartOfDay();
+        List<UriHitRange> days = new ArrayList<>();
+        List<UriHitRange> edges = new ArrayList<>();
+        for (UriHitRange range : ranges) {
+            TimeBuckets.split(range.getFrom(), range.getTo(), List.of(RollupGranularity.DAY),
+                    new TimeBuckets.RangeVisitor() {
+                        @Override
+                        public void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to) {
+                            if (from.isBefore(coveredStart)) {
+                                raw(from, to.isBefore(coveredStart) ? to : coveredStart);
+                            }
+                            if (to.isAfter(coveredStart)) {
+                                days.add(new UriHitRange(range.getUriId(), from.isAfter(coveredStart) ? from
+                                        : coveredStart, to));
+                            }
+                        }
+
+                        @Override
+                        public void raw(LocalDateTime from, LocalDateTime to) {
+                            edges.add(new UriHitRange(range.getUriId(), from, to));
+                        }
+                    });
+        }
+        Map<Long, HyperLogLog> sketches = new HashMap<>();
+        if (!days.isEmpty()) {
+            sketchRepository.findAllInRanges(RollupGranularity.DAY, days).forEach(sketch -> sketches.computeIfAbsent(
+                    HitDictionary.key(sketch.getAppId(), sketch.getUriId()), k -> new HyperLogLog())
+                    .merge(HyperLogLog.fromBytes(sketch.getSketch())));
+        }
+        if (!edges.isEmpty()) {
+            statsRepository.findVisitors(edges).forEach(visitor -> sketches.computeIfAbsent(
+                    HitDictionary.key(visitor.getAppId(), visitor.getUriId()), k -> new HyperLogLog())
+                    .add(visitor.getIp()));
+        }
+        Map<Long, Long> totals = new HashMap<>();
+        sketches.forEach((key, hll) -> totals.put(key, hll.estimate()));
+        return totals;
+    }
+
+    /**
+     * Adds the ips of one hour of raw hits to its HOUR sketches and to the DAY sketches of its day, a batch of keys
+     * per transaction.
+     */
+    private int backfillHour(LocalDateTime hour) {
+        Map<HitRollupId, HyperLogLog> additions = new TreeMap<>(LOCK_ORDER);
+        jdbcTemplate.query("SELECT app_id, uri_id, ip FROM stats WHERE timestamp >= ? AND timestamp < ? " +
+                "AND ip IS NOT NULL", (RowCallbackHandler) rs -> {
+            int appId = rs.getInt("app_id");
+            int uriId = rs.getInt("uri_id");
+            String ip = IP_CONVERTER.convertToEntityAttribute(rs.getBytes("ip"));
+            for (RollupGranularity granularity : GRANULARITIES) {
+                additions.computeIfAbsent(new HitRollupId(granularity, appId, uriId,
+                        hour.truncatedTo(granularity.getUnit())), k -> new HyperLogLog()).add(ip);
+            }
+        }, Timestamp.valueOf(hour), Timestamp.valueOf(hour.plusHours(1)));
+        List<HitRollupId> ids = new ArrayList<>(additions.keySet());
+        for (int i = 0; i < ids.size(); i += BACKFILL_BATCH_SIZE) {
+            Map<HitRollupId, HyperLogLog> batch = new TreeMap<>(LOCK_ORDER);
+            ids.subList(i, Math.min(i + BACKFILL_BATCH_SIZE, ids.size()))
+                    .forEach(id -> batch.put(id, additions.get(id)));
+            transactionTemplate.executeWithoutResult(status -> merge(batch));
+        }
+        return ids.size();
+    }
+
+    private void merge(Map<HitRollupId, HyperLogLog> additions) {
+        sketchRepository.insertAllIfAbsent(additions.keySet(), EMPTY);
+        List<HitSketch> sketches = sketchRepository.findAllForUpdate(new ArrayList<>(additions.keySet()));
+        for (HitSketch sketch : sketches) {
+            HyperLogLog hll = HyperLogLog.fromBytes(sketch.getSketch());
+            hll.merge(additions.get(new HitRollupId(sketch.getGranularity(), sketch.getAppId(), sketch.getUriId(),
+                    sketch.getBucket())));
+            sketch.setSketch(hll.toBytes());
+        }
+        sketchRepository.updateAll(sketches);
+    }
+}
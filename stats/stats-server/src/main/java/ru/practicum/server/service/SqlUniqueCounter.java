@@ -0,0 +1,55 @@
+package ru.practicum.server.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.repository.StatsRepository;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@Component
+@ConditionalOnProperty(name = "stats.unique.engine", havingValue = "sql", matchIfMissing = true)
+@RequiredArgsConstructor
+public class SqlUniqueCounter implements UniqueCounter {
+    private final HitStore hitStore;
+    private final HitCompactor compactor;
+    private final SketchService sketchService;
+    private final StatsRepository statsRepository;
+
+    /**
+     * Exact within the raw window. Compacted days keep no ips, so a range reaching them is estimated from the
+     * sketches instead.
+     */
+    @Override
+    public Map<Long, Long> countUniqueHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds) {
+        if (compactor.isCompacted(start)) {
+            return sketchService.countUniqueHits(start, end, uriIds);
+        }
+        Map<Long, Long> totals = new HashMap<>();
+        HitDictionary.merge(totals, hitStore.countUniqueHits(start, TimeBuckets.exclusiveEnd(end), uriIds));
+        return totals;
+    }
+
+    /**
+     * Exact for the windows starting in the raw window, counted in one query for all of them. Windows reaching
+     * compacted days are estimated from the sketches.
+     */
+    @Override
+    public Map<Long, Long> countUniqueHits(List<UriHitRange> ranges) {
+        Map<Boolean, List<UriHitRange>> byCompaction = ranges.stream()
+                .collect(Collectors.partitioningBy(range -> compactor.isCompacted(range.getFrom())));
+        Map<Long, Long> totals = new HashMap<>();
+        if (!byCompaction.get(false).isEmpty()) {
+            HitDictionary.merge(totals, statsRepository.countHits(byCompaction.get(false), true));
+        }
+        if (!byCompaction.get(true).isEmpty()) {
+            totals.putAll(sketchService.countUniqueHits(byCompaction.get(true)));
+        }
+        return totals;
+    }
+}
@@ -0,0 +1,268 @@
+package ru.practicum.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.model.EndpointHit;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of /stats results keyed by (start, end, uris, unique, approximate). An end in the current
+ * stats.cache.end-granularity bucket is rounded up to the end of that bucket, so that repeated "until now" queries
+ * share an entry; past ends are kept exact, so that historical results never count hits after them. Entries are
+ * indexed by their end and dropped when committed hits fall into their range, as are results still being computed.
+ */
+@Component
+public class StatsCache implements HitListener {
+    private final boolean enabled;
+    private final int maxEntries;
+    private final long granularitySeconds;
+    private final LinkedHashMap<Key, Entry> entries;
+    private final NavigableMap<LocalDateTime, Set<Key>> keysByEnd = new TreeMap<>();
+    private final Counter hitCounter;
+    private final Counter missCounter;
+    private final Counter sizeEvictionCounter;
+    private final Counter invalidationCounter;
+    private final Set<Load> loads = new HashSet<>();
+
+    public StatsCache(MeterRegistry meterRegistry,
+                      @Value("${stats.cache.enabled:true}") boolean enabled,
+                      @Value("${stats.cache.max-entries:10000}") int maxEntries,
+                      @Value("${stats.cache.end-granularity:1m}") Duration endGranularity) {
+        this.enabled = enabled;
+        this.maxEntries = maxEntries;
+        this.granularitySeconds = Math.max(endGranularity.getSeconds(), 1);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() <= StatsCache.this.maxEntries) {
+                    return false;
+                }
+                unindex(eldest.getKey());
+                sizeEvictionCounter.increment();
+                return true;
+            }
+        };
+        this.hitCounter = requests(meterRegistry, "hit");
+        this.missCounter = requests(meterRegistry, "miss");
+        this.sizeEvictionCounter = evictions(meterRegistry, "size");
+        this.invalidationCounter = evictions(meterRegistry, "invalidation");
+        Gauge.builder("stats.cache.size", this, StatsCache::size)
+                .description("Cached /stats results")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * End of the range a cached result covers for the given query end: the end of the current bucket for an end
+     * that falls in it, the end itself otherwise.
+     */
+    public LocalDateTime snapEnd(LocalDateTime end) {
+        long bucket = bucketOf(end);
+        LocalDateTime bucketStart = LocalDateTime.ofEpochSecond(bucket * granularitySeconds, 0, ZoneOffset.UTC);
+        if (bucket != bucketOf(LocalDateTime.now()) || end.equals(bucketStart)) {
+            return end;
+        }
+        return bucketStart.plusSeconds(granularitySeconds).minus(1, ChronoUnit.MICROS);
+    }
+
+    /**
+     * Returns the cached result for the query or computes it over [start, snapped end]. A result computed while hits
+     * falling into its range were committed is returned but not cached, as it may already be stale. Without uri ids
+     * the entry is dropped by any hit in its range.
+     */
+    public List<ViewStatsDto> get(LocalDateTime start, LocalDateTime snappedEnd, List<String> uris,
+                                  List<Integer> uriIds, boolean unique, boolean approximate,
+                                  Supplier<List<ViewStatsDto>> loader) {
+        Key key = new Key(start, snappedEnd, uris == null ? null : List.copyOf(new TreeSet<>(uris)), unique,
+                approximate);
+        Set<Integer> ids = uriIds == null ? null : Set.copyOf(uriIds);
+        Load load = new Load(key, ids);
+        synchronized (this) {
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hitCounter.increment();
+                return entry.getStats();
+            }
+            loads.add(load);
+        }
+        missCounter.increment();
+        List<ViewStatsDto> stats;
+        try {
+            stats = Collections.unmodifiableList(loader.get());
+        } finally {
+            synchronized (this) {
+                loads.remove(load);
+            }
+        }
+        synchronized (this) {
+            if (!load.stale && !entries.containsKey(key)) {
+                entries.put(key, new Entry(ids, stats));
+                keysByEnd.computeIfAbsent(snappedEnd, end -> new HashSet<>()).add(key);
+            }
+        }
+        return stats;
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled || hits.isEmpty()) {
+            return;
+        }
+        HitSpan span = new HitSpan(hits);
+        AfterCommit.run(() -> invalidate(span));
+    }
+
+    /**
+     * Drops every entry, for changes that are not tied to committed hits.
+     */
+    public synchronized void clear() {
+        loads.forEach(load -> load.stale = true);
+        invalidationCounter.increment(entries.size());
+        entries.clear();
+        keysByEnd.clear();
+    }
+
+    private synchronized void invalidate(HitSpan span) {
+        for (Load load : loads) {
+            if (span.overlaps(load.key.getStart(), load.key.getEnd(), load.uriIds)) {
+                load.stale = true;
+            }
+        }
+        Iterator<Set<Key>> buckets = keysByEnd.tailMap(span.min, true).values().iterator();
+        while (buckets.hasNext()) {
+            Set<Key> keys = buckets.next();
+            keys.removeIf(key -> {
+                if (!span.overlaps(key.getStart(), key.getEnd(), entries.get(key).getUriIds())) {
+                    return false;
+                }
+                entries.remove(key);
+                invalidationCounter.increment();
+                return true;
+            });
+            if (keys.isEmpty()) {
+                buckets.remove();
+            }
+        }
+    }
+
+    private void unindex(Key key) {
+        Set<Key> keys = keysByEnd.get(key.getEnd());
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                keysByEnd.remove(key.getEnd());
+            }
+        }
+    }
+
+    private long bucketOf(LocalDateTime time) {
+        return Math.floorDiv(time.toEpochSecond(ZoneOffset.UTC), granularitySeconds);
+    }
+
+    private synchronized int size() {
+        return entries.size();
+    }
+
+    private static Counter requests(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("stats.cache.requests")
+                .description("/stats lookups in the result cache")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private static Counter evictions(MeterRegistry meterRegistry, String cause) {
+        return Counter.builder("stats.cache.evictions")
+                .description("Results dropped from the cache")
+                .tag("cause", cause)
+                .register(meterRegistry);
+    }
+
+    @Getter
+    @EqualsAndHashCode
+    @AllArgsConstructor
+    private static class Key {
+        private final LocalDateTime start;
+        private final LocalDateTime end;
+        private final List<String> uris;
+        private final boolean unique;
+        private final boolean approximate;
+    }
+
+    @Getter
+    @AllArgsConstructor
+    private static class Entry {
+        private final Set<Integer> uriIds;
+        private final List<ViewStatsDto> stats;
+    }
+
+    /**
+     * Result being computed, which turns stale when hits falling into its range are committed meanwhile. Compared by
+     * identity, as concurrent loads of the same key are tracked separately.
+     */
+    private static final class Load {
+        private final Key key;
+        private final Set<Integer> uriIds;
+        private boolean stale;
+
+        private Load(Key key, Set<Integer> uriIds) {
+            this.key = key;
+            this.uriIds = uriIds;
+        }
+    }
+
+    /**
+     * Time span of a committed batch, overall and per uri id.
+     */
+    private static final class HitSpan {
+        private final Map<Integer, LocalDateTime[]> byUri = new HashMap<>();
+        private LocalDateTime min = LocalDateTime.MAX;
+        private LocalDateTime max = LocalDateTime.MIN;
+
+        private HitSpan(List<EndpointHit> hits) {
+            for (EndpointHit hit : hits) {
+                LocalDateTime time = hit.getTimestamp();
+                min = time.isBefore(min) ? time : min;
+                max = time.isAfter(max) ? time : max;
+                byUri.merge(hit.getUriId(), new LocalDateTime[]{time, time}, (span, other) -> {
+                    span[0] = other[0].isBefore(span[0]) ? other[0] : span[0];
+                    span[1] = other[1].isAfter(span[1]) ? other[1] : span[1];
+                    return span;
+                });
+            }
+        }
+
+        private boolean overlaps(LocalDateTime start, LocalDateTime end, Set<Integer> uriIds) {
+            if (uriIds == null) {
+                return overlaps(min, max, start, end);
+            }
+            for (Integer uriId : uriIds) {
+                LocalDateTime[] span = byUri.get(uriId);
+                if (span != null && overlaps(span[0], span[1], start, end)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean overlaps(LocalDateTime first, LocalDateTime last, LocalDateTime start,
+                                        LocalDateTime end) {
+            return !last.isBefore(start) && !first.isAfter(end);
+        }
+    }
+}
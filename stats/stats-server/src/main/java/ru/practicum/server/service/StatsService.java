@@ -1,13 +1,55 @@
 package ru.practicum.server.service;
 
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.UriRangeDto;
 import ru.practicum.dto.ViewStatsDto;
+import ru.practicum.server.model.RollupGranularity;
 
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface StatsService {
     EndpointHitDto create(EndpointHitDto endpointHitDto);
 
-    List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique);
+    List<EndpointHitDto> createAll(List<EndpointHitDto> endpointHitDtos);
+
+    /**
+     * Uris may end in /* or /** to match every uri one or any number of segments below the prefix. With
+     * groupBy=pathParam and a single /* pattern, each row's uri is replaced by the segment the * matched. A range
+     * starting or ending inside a compacted day counts that whole day, see {@link HitCompactor}.
+     */
+    List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                           boolean approximate, String groupBy);
+
+    /**
+     * Rows like {@link #get}, but every uri or uri pattern is counted over its own window. A uri may be covered by
+     * one window only. With approximate, unique hits of a window holding all hits of its uri are estimated from the
+     * lifetime sketch.
+     */
+    List<ViewStatsDto> query(List<UriRangeDto> ranges, boolean unique, boolean approximate);
+
+    /**
+     * Same rows as {@link #get} with approximate=false, handed to the consumer one at a time as the database
+     * cursor yields them. The range is checked before the first row is produced.
+     */
+    void stream(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                Consumer<ViewStatsDto> consumer);
+
+    List<ViewStatsDto> getTop(LocalDateTime start, LocalDateTime end, int k);
+
+    /**
+     * Hits and unique ips of the uri per bucket. Before the compaction watermark only day buckets are kept and their
+     * unique hits are null.
+     */
+    List<HistogramBucketDto> getHistogram(LocalDateTime start, LocalDateTime end, String uri,
+                                          RollupGranularity bucket);
+
+    /**
+     * Hits and new unique ips per (app, uri) ingested after the cursor, at most limit changes per page. Counters kept
+     * by adding the pages up stay equal to all-time /stats, with unique hits as sketch estimates.
+     */
+    StatsChangesDto getChanges(String since, int limit);
 }
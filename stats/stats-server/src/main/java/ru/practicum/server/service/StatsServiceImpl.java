@@ -4,37 +4,254 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import ru.practicum.dto.EndpointHitDto;
+import ru.practicum.dto.HistogramBucketDto;
+import ru.practicum.dto.StatsChangesDto;
+import ru.practicum.dto.UriRangeDto;
 import ru.practicum.dto.ViewStatsDto;
 import ru.practicum.server.exception.DataException;
 import ru.practicum.server.mapper.EndpointHitMapper;
+import ru.practicum.server.mapper.HistogramBucketMapper;
+import ru.practicum.server.mapper.StatsChangeMapper;
 import ru.practicum.server.mapper.ViewStatsMapper;
+import ru.practicum.server.model.ChangePage;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitRange;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.LifetimeTotals;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.model.ViewStats;
 import ru.practicum.server.repository.StatsRepository;
 
 import java.time.LocalDateTime;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class StatsServiceImpl implements StatsService {
-    private final StatsRepository repository;
+    private static final String GROUP_BY_PATH_PARAM = "pathParam";
+    private final HitWriter writer;
+    private final HitBuffer buffer;
+    private final RollupService rollupService;
+    private final SketchService sketchService;
+    private final UniqueCounter uniqueCounter;
+    private final HitDictionary dictionary;
+    private final StatsRepository statsRepository;
+    private final TopHitsService topHitsService;
+    private final StatsCache cache;
+    private final HitCompactor compactor;
+    private final TotalsService totalsService;
+    private final ChangeFeed changeFeed;
 
     @Override
-    @Transactional
     public EndpointHitDto create(EndpointHitDto endpointHitDto) {
-        return EndpointHitMapper.toEndpointHitDto(repository.save(EndpointHitMapper.toEndpointHit(endpointHitDto)));
+        EndpointHit hit = normalizeIp(EndpointHitMapper.toEndpointHit(endpointHitDto));
+        if (buffer.offer(hit)) {
+            return EndpointHitMapper.toEndpointHitDto(hit);
+        }
+        List<EndpointHit> saved = writer.write(List.of(hit));
+        return EndpointHitMapper.toEndpointHitDto(saved.isEmpty() ? hit : saved.get(0));
+    }
+
+    @Override
+    public List<EndpointHitDto> createAll(List<EndpointHitDto> endpointHitDtos) {
+        List<EndpointHit> hits = EndpointHitMapper.listToEndpointHit(endpointHitDtos);
+        hits.forEach(StatsServiceImpl::normalizeIp);
+        List<EndpointHit> overflow = new ArrayList<>();
+        for (EndpointHit hit : hits) {
+            if (!buffer.offer(hit)) {
+                overflow.add(hit);
+            }
+        }
+        if (!overflow.isEmpty()) {
+            writer.write(overflow);
+        }
+        return EndpointHitMapper.listToDto(hits);
     }
 
     @Override
     @Transactional(readOnly = true)
-    public List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique) {
-        if (start.isAfter(end)) {
-            throw new DataException("Начало мероприятия не может быть позже окончания мероприятия.");
+    public List<ViewStatsDto> get(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                                  boolean approximate, String groupBy) {
+        checkRange(start, end);
+        String pathParamPrefix = pathParamPrefix(uris, groupBy);
+        List<Integer> uriIds = dictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return List.of();
+        }
+        LocalDateTime from = compactor.alignStart(start);
+        LocalDateTime to = compactor.alignEnd(end);
+        List<ViewStatsDto> stats;
+        if (cache.isEnabled()) {
+            LocalDateTime snappedEnd = cache.snapEnd(to);
+            boolean byUriIds = uris != null && uris.stream().noneMatch(HitDictionary::isPattern)
+                    && uriIds.size() == new HashSet<>(uris).size();
+            stats = cache.get(from, snappedEnd, uris, byUriIds ? uriIds : null, unique, approximate,
+                    () -> count(from, snappedEnd, uriIds, unique, approximate));
+        } else {
+            stats = count(from, to, uriIds, unique, approximate);
+        }
+        return pathParamPrefix == null ? stats : toPathParams(stats, pathParamPrefix);
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ViewStatsDto> query(List<UriRangeDto> ranges, boolean unique, boolean approximate) {
+        Map<String, Integer> exactIds = dictionary.findExactUriIds(ranges.stream()
+                .map(UriRangeDto::getUri)
+                .filter(uri -> !HitDictionary.isPattern(uri))
+                .collect(Collectors.toList()));
+        List<UriHitRange> hitRanges = new ArrayList<>();
+        Set<Integer> covered = new HashSet<>();
+        for (UriRangeDto range : ranges) {
+            checkRange(range.getStart(), range.getEnd());
+            List<Integer> uriIds;
+            if (HitDictionary.isPattern(range.getUri())) {
+                uriIds = dictionary.findUriIds(List.of(range.getUri()));
+            } else {
+                Integer uriId = exactIds.get(range.getUri());
+                uriIds = uriId == null ? List.of() : List.of(uriId);
+            }
+            for (Integer uriId : uriIds) {
+                if (!covered.add(uriId)) {
+                    throw new DataException("Uri попадает в несколько интервалов запроса: " + range.getUri());
+                }
+                hitRanges.add(new UriHitRange(uriId, compactor.alignStart(range.getStart()),
+                        TimeBuckets.exclusiveEnd(compactor.alignEnd(range.getEnd()))));
+            }
+        }
+        Map<Long, Long> totals = new HashMap<>();
+        if (!hitRanges.isEmpty() && totalsService.canAnswer(unique, approximate)) {
+            LifetimeTotals lifetime = totalsService.countLifetime(hitRanges, unique);
+            totals.putAll(lifetime.getTotals());
+            hitRanges.removeIf(range -> !lifetime.getUncoveredUriIds().contains(range.getUriId()));
+        }
+        if (hitRanges.isEmpty()) {
+            return ViewStatsMapper.listToDto(dictionary.toViewStats(totals));
         }
         if (unique) {
-            return ViewStatsMapper.listToDto(repository.getAllUniqueEndpointHitByUriIn(start, end, uris));
+            totals.putAll(uniqueCounter.countUniqueHits(hitRanges));
+        } else {
+            HitDictionary.merge(totals, statsRepository.countHits(hitRanges, false));
+            HitDictionary.merge(totals, rollupService.countCompactedHits(hitRanges));
+        }
+        return ViewStatsMapper.listToDto(dictionary.toViewStats(totals));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public void stream(LocalDateTime start, LocalDateTime end, List<String> uris, boolean unique,
+                       Consumer<ViewStatsDto> consumer) {
+        checkRange(start, end);
+        List<Integer> uriIds = dictionary.findUriIds(uris);
+        if (uriIds != null && uriIds.isEmpty()) {
+            return;
+        }
+        LocalDateTime from = compactor.alignStart(start);
+        LocalDateTime to = compactor.alignEnd(end);
+        Consumer<ViewStats> rows = viewStats -> consumer.accept(ViewStatsMapper.toViewStatsDto(viewStats));
+        if (unique && compactor.isCompacted(from)) {
+            dictionary.toViewStats(uniqueCounter.countUniqueHits(from, to, uriIds)).forEach(rows);
+        } else if (unique) {
+            statsRepository.streamUniqueHits(new HitRange(null, from, TimeBuckets.exclusiveEnd(to)), uriIds, rows);
+        } else {
+            rollupService.streamHits(from, to, uriIds, rows);
+        }
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<ViewStatsDto> getTop(LocalDateTime start, LocalDateTime end, int k) {
+        checkRange(start, end);
+        return ViewStatsMapper.listToDto(topHitsService.top(compactor.alignStart(start), compactor.alignEnd(end), k));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public List<HistogramBucketDto> getHistogram(LocalDateTime start, LocalDateTime end, String uri,
+                                                 RollupGranularity bucket) {
+        checkRange(start, end);
+        compactor.checkBucket(start, bucket);
+        LocalDateTime from = compactor.alignStart(start);
+        LocalDateTime to = TimeBuckets.exclusiveEnd(compactor.alignEnd(end));
+        List<Integer> uriIds = dictionary.findUriIds(List.of(uri));
+        if (uriIds.isEmpty()) {
+            return List.of();
+        }
+        return HistogramBucketMapper.listToDto(statsRepository.findHistogram(bucket, from, to,
+                compactor.compactedTo(to), uriIds));
+    }
+
+    @Override
+    @Transactional(readOnly = true)
+    public StatsChangesDto getChanges(String since, int limit) {
+        ChangePage page = changeFeed.read(since, limit);
+        return StatsChangeMapper.toStatsChangesDto(dictionary.toStatsChanges(page.getChanges()), page.getCursor(),
+                page.isHasMore());
+    }
+
+    private List<ViewStatsDto> count(LocalDateTime start, LocalDateTime end, List<Integer> uriIds, boolean unique,
+                                     boolean approximate) {
+        Map<Long, Long> totals = new HashMap<>();
+        List<Integer> rest = uriIds;
+        if (totalsService.canAnswer(unique, approximate)) {
+            LifetimeTotals lifetime = totalsService.countLifetime(start, end, uriIds, unique);
+            if (lifetime != null) {
+                totals.putAll(lifetime.getTotals());
+                rest = new ArrayList<>(lifetime.getUncoveredUriIds());
+            }
+        }
+        if (rest != null && rest.isEmpty()) {
+            return ViewStatsMapper.listToDto(dictionary.toViewStats(totals));
+        }
+        if (unique && approximate && sketchService.isEnabled()) {
+            totals.putAll(sketchService.countUniqueHits(start, end, rest));
+        } else if (unique) {
+            totals.putAll(uniqueCounter.countUniqueHits(start, end, rest));
         } else {
-            return ViewStatsMapper.listToDto(repository.getAllEndpointHitsByUriIn(start, end, uris));
+            totals.putAll(rollupService.countHits(start, end, rest));
+        }
+        return ViewStatsMapper.listToDto(dictionary.toViewStats(totals));
+    }
+
+    /**
+     * Part of the single /* pattern that precedes the path parameter, or null when results stay keyed by uri.
+     */
+    private static String pathParamPrefix(List<String> uris, String groupBy) {
+        if (groupBy == null) {
+            return null;
+        }
+        if (!GROUP_BY_PATH_PARAM.equals(groupBy)) {
+            throw new DataException("Неизвестная группировка: " + groupBy);
+        }
+        if (uris == null || uris.size() != 1 || !uris.get(0).endsWith("/*")) {
+            throw new DataException("Группировка pathParam требует одного шаблона uri вида /path/*");
+        }
+        return uris.get(0).substring(0, uris.get(0).length() - 1);
+    }
+
+    private static List<ViewStatsDto> toPathParams(List<ViewStatsDto> stats, String prefix) {
+        return stats.stream()
+                .map(viewStats -> new ViewStatsDto(viewStats.getApp(), viewStats.getUri().substring(prefix.length()),
+                        viewStats.getHits()))
+                .collect(Collectors.toList());
+    }
+
+    static void checkRange(LocalDateTime start, LocalDateTime end) {
+        if (start.isAfter(end)) {
+            throw new DataException("Начало мероприятия не может быть позже окончания мероприятия.");
+        }
+    }
+
+    private static EndpointHit normalizeIp(EndpointHit hit) {
+        String ip = IpAddressConverter.normalize(hit.getIp());
+        if (ip == null) {
+            throw new DataException("Некорректный ip-адрес: " + hit.getIp());
         }
+        hit.setIp(ip);
+        return hit;
     }
 }
 
@@ -0,0 +1,57 @@
+package ru.practicum.server.service;
+
+import ru.practicum.server.model.RollupGranularity;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+public final class TimeBuckets {
+    private TimeBuckets() {
+    }
+
+    public interface RangeVisitor {
+        void bucket(RollupGranularity granularity, LocalDateTime from, LocalDateTime to);
+
+        void raw(LocalDateTime from, LocalDateTime to);
+    }
+
+    public static LocalDateTime exclusiveEnd(LocalDateTime end) {
+        return end.plus(1, ChronoUnit.MICROS);
+    }
+
+    public static LocalDateTime ceil(LocalDateTime time, ChronoUnit unit) {
+        LocalDateTime truncated = time.truncatedTo(unit);
+        return truncated.equals(time) ? time : truncated.plus(1, unit);
+    }
+
+    /**
+     * Covers [from, to) with the coarsest whole buckets available, finest granularity first in the list,
+     * and hands the unaligned edges to {@link RangeVisitor#raw}.
+     */
+    public static void split(LocalDateTime from, LocalDateTime to, List<RollupGranularity> granularities,
+                             RangeVisitor visitor) {
+        split(granularities.size() - 1, from, to, granularities, visitor);
+    }
+
+    private static void split(int level, LocalDateTime from, LocalDateTime to, List<RollupGranularity> granularities,
+                              RangeVisitor visitor) {
+        if (!from.isBefore(to)) {
+            return;
+        }
+        if (level < 0) {
+            visitor.raw(from, to);
+            return;
+        }
+        ChronoUnit unit = granularities.get(level).getUnit();
+        LocalDateTime alignedFrom = ceil(from, unit);
+        LocalDateTime alignedTo = to.truncatedTo(unit);
+        if (!alignedFrom.isBefore(alignedTo)) {
+            split(level - 1, from, to, granularities, visitor);
+            return;
+        }
+        split(level - 1, from, alignedFrom, granularities, visitor);
+        visitor.bucket(granularities.get(level), alignedFrom, alignedTo);
+        split(level - 1, alignedTo, to, granularities, visitor);
+    }
+}
@@ -0,0 +1,232 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import ru.practicum.server.exception.DataException;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.ViewStats;
+import ru.practicum.server.repository.StatsRepository;
+import ru.practicum.server.sketch.SpaceSaving;
+
+import javax.annotation.PostConstruct;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.stream.Collectors;
+
+/**
+ * Heavy hitters of a /stats/top range from {@link SpaceSaving} summaries of stats.top.capacity counters, one per hour
+ * for the last stats.top.hours hours and one per day for the last stats.top.days days, rebuilt from the stored
+ * totals on start and updated after every committed write.
+ * <p>
+ * A summary bounds the weight of every key in its bucket, and of every part of it, from above: a kept key by its
+ * counter, any other key by the smallest counter. The keys kept by the buckets overlapping a range are taken as
+ * candidates in order of their summed bounds, and their exact totals over the range, unaligned edges included, are
+ * counted for those uris alone until the k-th exact total reaches both the bound of the next candidate and the bound
+ * of the keys no summary keeps. The result is thus exact, whether a key was evicted from some buckets or not. Ranges
+ * reaching before the summaries, and the rare ones whose top k the bounds cannot separate, are selected by the
+ * database from the rollups instead.
+ */
+@Service
+@Slf4j
+public class TopHitsService implements HitListener {
+    private final RollupService rollupService;
+    private final StatsRepository statsRepository;
+    private final HitDictionary dictionary;
+    private final boolean enabled;
+    private final int capacity;
+    private final int maxK;
+    private final long hours;
+    private final long days;
+    private final NavigableMap<LocalDateTime, SpaceSaving> hourBuckets = new ConcurrentSkipListMap<>();
+    private final NavigableMap<LocalDateTime, SpaceSaving> dayBuckets = new ConcurrentSkipListMap<>();
+
+    public TopHitsService(RollupService rollupService,
+                          StatsRepository statsRepository,
+                          HitDictionary dictionary,
+                          @Value("${stats.top.enabled:true}") boolean enabled,
+                          @Value("${stats.top.capacity:1000}") int capacity,
+                          @Value("${stats.top.max-k:1000}") int maxK,
+                          @Value("${stats.top.hours:168}") int hours,
+                          @Value("${stats.top.days:90}") int days) {
+        this.rollupService = rollupService;
+        this.statsRepository = statsRepository;
+        this.dictionary = dictionary;
+        this.enabled = enabled;
+        this.capacity = capacity;
+        this.maxK = maxK;
+        this.hours = Math.max(hours, 1);
+        this.days = Math.max(days, 1);
+    }
+
+    @PostConstruct
+    public void load() {
+        if (!enabled) {
+            return;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        loadBuckets(hourBuckets, hoursFrom(), now.truncatedTo(ChronoUnit.HOURS).plusHours(1), ChronoUnit.HOURS);
+        loadBuckets(dayBuckets, daysFrom(), now.truncatedTo(ChronoUnit.DAYS).plusDays(1), ChronoUnit.DAYS);
+        log.info("Top hits loaded {} hour and {} day summaries", hourBuckets.size(), dayBuckets.size());
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        AfterCommit.run(() -> addAll(hits));
+    }
+
+    public List<ViewStats> top(LocalDateTime start, LocalDateTime end, int k) {
+        if (k > maxK) {
+            throw new DataException("Размер выборки не может превышать " + maxK + ".");
+        }
+        LocalDateTime endExclusive = TimeBuckets.exclusiveEnd(end);
+        if (!enabled || start.isBefore(daysFrom())) {
+            return statsRepository.findTop(rollupService.hitRanges(start, end), k);
+        }
+        Map<Long, Long> top = fromSummaries(start, end, summaries(start, endExclusive), k);
+        if (top == null) {
+            log.debug("Top {} of [{}, {}] not separated by the summaries, selecting it from the rollups", k, start,
+                    end);
+            return statsRepository.findTop(rollupService.hitRanges(start, end), k);
+        }
+        return dictionary.toViewStats(top);
+    }
+
+    @Scheduled(fixedDelayString = "${stats.top.evict-interval-ms:600000}")
+    public void evict() {
+        if (enabled) {
+            hourBuckets.headMap(hoursFrom()).clear();
+            dayBuckets.headMap(daysFrom()).clear();
+        }
+    }
+
+    /**
+     * Exact top k of the range, or null when the candidates run out before their k-th total reaches the bound of
+     * the keys no summary keeps.
+     */
+    private Map<Long, Long> fromSummaries(LocalDateTime start, LocalDateTime end, List<SpaceSaving> summaries,
+                                          int k) {
+        long unkeptBound = 0;
+        Set<Long> keys = new HashSet<>();
+        for (SpaceSaving summary : summaries) {
+            synchronized (summary) {
+                unkeptBound += summary.minCount();
+                summary.forEach((key, count) -> keys.add(key));
+            }
+        }
+        Map<Long, Long> bounds = new HashMap<>();
+        for (SpaceSaving summary : summaries) {
+            synchronized (summary) {
+                keys.forEach(key -> bounds.merge(key, summary.upperBound(key), Long::sum));
+            }
+        }
+        List<Long> candidates = keys.stream()
+                .sorted(Comparator.comparing(bounds::get).reversed())
+                .collect(Collectors.toList());
+        PriorityQueue<Map.Entry<Long, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        int batchSize = Math.max(2 * k, 100);
+        for (int next = 0; next < candidates.size(); next += batchSize) {
+            if (heap.size() == k && heap.peek().getValue() >= bounds.get(candidates.get(next))) {
+                break;
+            }
+            List<Long> batch = candidates.subList(next, Math.min(next + batchSize, candidates.size()));
+            Map<Long, Long> totals = rollupService.countHits(start, end, batch.stream()
+                    .map(HitDictionary::uriId)
+                    .distinct()
+                    .collect(Collectors.toList()));
+            for (Long key : batch) {
+                long hits = totals.getOrDefault(key, 0L);
+                if (hits == 0) {
+                    continue;
+                }
+                if (heap.size() < k) {
+                    heap.add(Map.entry(key, hits));
+                } else if (hits > heap.peek().getValue()) {
+                    heap.poll();
+                    heap.add(Map.entry(key, hits));
+                }
+            }
+        }
+        long kth = heap.size() < k ? 0 : heap.peek().getValue();
+        if (unkeptBound > kth) {
+            return null;
+        }
+        Map<Long, Long> top = new HashMap<>();
+        heap.forEach(entry -> top.put(entry.getKey(), entry.getValue()));
+        return top;
+    }
+
+    /**
+     * Summaries covering [start, end): the hour summary of every hour that has one, the day summary of the days
+     * with hours before them. Buckets without a summary held no hits.
+     */
+    private List<SpaceSaving> summaries(LocalDateTime start, LocalDateTime end) {
+        LocalDateTime hoursFrom = hoursFrom();
+        List<SpaceSaving> summaries = new ArrayList<>();
+        LocalDateTime dayHoursTo = end.isBefore(hoursFrom) ? end : hoursFrom;
+        if (start.isBefore(dayHoursTo)) {
+            summaries.addAll(dayBuckets.subMap(start.truncatedTo(ChronoUnit.DAYS), dayHoursTo).values());
+        }
+        LocalDateTime hourFrom = start.isBefore(hoursFrom) ? hoursFrom : start.truncatedTo(ChronoUnit.HOURS);
+        if (hourFrom.isBefore(end)) {
+            summaries.addAll(hourBuckets.subMap(hourFrom, end).values());
+        }
+        return summaries;
+    }
+
+    private void loadBuckets(Map<LocalDateTime, SpaceSaving> buckets, LocalDateTime from, LocalDateTime to,
+                             ChronoUnit unit) {
+        for (LocalDateTime bucket = from; bucket.isBefore(to); bucket = bucket.plus(1, unit)) {
+            Map<Long, Long> totals = new HashMap<>();
+            rollupService.countStored(bucket, bucket.plus(1, unit), null, totals);
+            rollupService.countCompacted(bucket, bucket.plus(1, unit), null, totals);
+            if (!totals.isEmpty()) {
+                SpaceSaving summary = buckets.computeIfAbsent(bucket, b -> new SpaceSaving(capacity));
+                totals.forEach(summary::offer);
+            }
+        }
+    }
+
+    private LocalDateTime hoursFrom() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.HOURS).minusHours(hours - 1);
+    }
+
+    private LocalDateTime daysFrom() {
+        return LocalDateTime.now().truncatedTo(ChronoUnit.DAYS).minusDays(days - 1);
+    }
+
+    private void addAll(List<EndpointHit> hits) {
+        LocalDateTime hoursFrom = hoursFrom();
+        LocalDateTime daysFrom = daysFrom();
+        Map<LocalDateTime, Map<Long, Long>> hourCounts = new HashMap<>();
+        Map<LocalDateTime, Map<Long, Long>> dayCounts = new HashMap<>();
+        for (EndpointHit hit : hits) {
+            long key = HitDictionary.key(hit.getAppId(), hit.getUriId());
+            LocalDateTime hour = hit.getTimestamp().truncatedTo(ChronoUnit.HOURS);
+            LocalDateTime day = hit.getTimestamp().truncatedTo(ChronoUnit.DAYS);
+            if (!hour.isBefore(hoursFrom)) {
+                hourCounts.computeIfAbsent(hour, h -> new HashMap<>()).merge(key, 1L, Long::sum);
+            }
+            if (!day.isBefore(daysFrom)) {
+                dayCounts.computeIfAbsent(day, d -> new HashMap<>()).merge(key, 1L, Long::sum);
+            }
+        }
+        offerAll(hourBuckets, hourCounts);
+        offerAll(dayBuckets, dayCounts);
+    }
+
+    private void offerAll(Map<LocalDateTime, SpaceSaving> buckets, Map<LocalDateTime, Map<Long, Long>> counts) {
+        counts.forEach((bucket, bucketCounts) -> {
+            SpaceSaving summary = buckets.computeIfAbsent(bucket, b -> new SpaceSaving(capacity));
+            synchronized (summary) {
+                bucketCounts.forEach(summary::offer);
+            }
+        });
+    }
+}
@@ -0,0 +1,390 @@
+package ru.practicum.server.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.practicum.server.model.EndpointHit;
+import ru.practicum.server.model.HitChange;
+import ru.practicum.server.model.IpAddressConverter;
+import ru.practicum.server.model.LifetimeTotals;
+import ru.practicum.server.model.RollupGranularity;
+import ru.practicum.server.model.UriHitRange;
+import ru.practicum.server.sketch.HyperLogLog;
+
+import javax.annotation.PostConstruct;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Lifetime hits, first and last hit time and unique-ip sketch of every (app, uri), kept in stats_total by the
+ * transaction storing the hits. A uri whose query window holds all of its hits is answered from its row without
+ * touching stats or the rollups: hits exactly, unique hits only when approximate, from the sketch.
+ * <p>
+ * Each batch's per-uri hits and new unique ips, the growth of the sketch estimate, are also handed to the
+ * {@link ChangeFeed}.
+ * <p>
+ * The table is filled once from stats, the DAY rollups and the DAY sketches, with the ips of days the sketches do
+ * not cover yet (see {@link SketchService#coveredFrom()}) read from stats, when the server starts with it empty.
+ * Compaction does not change it, and hits dropped by stats.retention.days stay counted: a uri with hits older than
+ * the retention cutoff is never covered, so queries count what is left of it the usual way, while the live stream
+ * keeps pushing its lifetime counts. To rebuild the table, e.g. after running with stats.totals.enabled=false,
+ * truncate stats_total and restart.
+ */
+@Service
+@Slf4j
+public class TotalsService implements HitListener {
+    private static final String UPSERT = "INSERT INTO stats_total (app_id, uri_id, hits, first_hit, last_hit) " +
+            "VALUES (?, ?, ?, ?, ?) ON CONFLICT (app_id, uri_id) DO UPDATE SET " +
+            "hits = stats_total.hits + EXCLUDED.hits, " +
+            "first_hit = LEAST(stats_total.first_hit, EXCLUDED.first_hit), " +
+            "last_hit = GREATEST(stats_total.last_hit, EXCLUDED.last_hit)";
+    private static final String FIND_SKETCHES = "SELECT t.app_id, t.uri_id, t.sketch FROM stats_total AS t " +
+            "JOIN unnest(?, ?) AS k(app_id, uri_id) ON t.app_id = k.app_id AND t.uri_id = k.uri_id";
+    private static final String UPDATE_SKETCH = "UPDATE stats_total SET sketch = ? WHERE app_id = ? AND uri_id = ?";
+    private static final String COVERED = "bool_and(t.first_hit >= q.from_time AND t.last_hit < q.to_time) " +
+            "OVER (PARTITION BY t.uri_id) AS covered";
+    private static final String BACKFILL = "INSERT INTO stats_total (app_id, uri_id, hits, first_hit, last_hit) " +
+            "SELECT app_id, uri_id, sum(hits), min(first_hit), max(last_hit) FROM (" +
+            "SELECT app_id, uri_id, sum(hits) AS hits, min(timestamp) AS first_hit, max(timestamp) AS last_hit " +
+            "FROM stats GROUP BY app_id, uri_id " +
+            "UNION ALL SELECT app_id, uri_id, sum(hits), min(bucket), " +
+            "max(bucket) + INTERVAL '1 day' - INTERVAL '1 microsecond' " +
+            "FROM stats_rollup WHERE granularity = ? AND hits > 0 GROUP BY app_id, uri_id" +
+            ") AS t GROUP BY app_id, uri_id";
+    private static final IpAddressConverter IP_CONVERTER = new IpAddressConverter();
+    private static final int FETCH_SIZE = 1000;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ChangeFeed changeFeed;
+    private final SketchService sketchService;
+    private final boolean enabled;
+    private final boolean sketchEnabled;
+    private final int retentionDays;
+    private volatile LocalDateTime firstHit;
+    private volatile LocalDateTime lastHit;
+
+    public TotalsService(JdbcTemplate jdbcTemplate,
+                         TransactionTemplate transactionTemplate,
+                         ChangeFeed changeFeed,
+                         SketchService sketchService,
+                         @Value("${stats.totals.enabled:true}") boolean enabled,
+                         @Value("${stats.sketch.enabled:true}") boolean sketchEnabled,
+                         @Value("${stats.storage:jpa}") String storage,
+                         @Value("${stats.retention.days:0}") int retentionDays) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.changeFeed = changeFeed;
+        this.sketchService = sketchService;
+        this.enabled = enabled && "jpa".equals(storage);
+        this.sketchEnabled = sketchEnabled;
+        this.retentionDays = retentionDays;
+        if (enabled && !this.enabled) {
+            log.info("Lifetime totals are disabled: they are backfilled from stats, which stats.storage={} " +
+                    "does not use", storage);
+        }
+    }
+
+    /**
+     * Whether totals can answer the query: hits always, unique hits only as sketch estimates.
+     */
+    public boolean canAnswer(boolean unique, boolean approximate) {
+        return enabled && (!unique || approximate && sketchEnabled);
+    }
+
+    @PostConstruct
+    public void backfill() {
+        if (!enabled) {
+            return;
+        }
+        long startedAt = System.currentTimeMillis();
+        Integer rows = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE stats_total IN EXCLUSIVE MODE");
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM stats_total)",
+                    Boolean.class))) {
+                return null;
+            }
+            int inserted = jdbcTemplate.update(BACKFILL, RollupGranularity.DAY.name());
+            if (sketchEnabled && inserted > 0) {
+                backfillSketches();
+            }
+            return inserted;
+        });
+        if (rows != null) {
+            log.info("Backfilled lifetime totals of {} uris in {} ms", rows, System.currentTimeMillis() - startedAt);
+        }
+        jdbcTemplate.query("SELECT min(first_hit) AS first_hit, max(last_hit) AS last_hit FROM stats_total",
+                (RowCallbackHandler) rs -> {
+                    Timestamp first = rs.getTimestamp("first_hit");
+                    if (first != null) {
+                        widen(first.toLocalDateTime(), rs.getTimestamp("last_hit").toLocalDateTime());
+                    }
+                });
+    }
+
+    @Override
+    public void onHits(List<EndpointHit> hits) {
+        if (!enabled) {
+            return;
+        }
+        Map<Long, Lifetime> lifetimes = new TreeMap<>();
+        for (EndpointHit hit : hits) {
+            lifetimes.computeIfAbsent(HitDictionary.key(hit.getAppId(), hit.getUriId()),
+                    key -> new Lifetime(hit.getAppId(), hit.getUriId())).add(hit);
+        }
+        List<Lifetime> rows = new ArrayList<>(lifetimes.values());
+        jdbcTemplate.batchUpdate(UPSERT, rows, rows.size(), (statement, lifetime) -> {
+            statement.setInt(1, lifetime.appId);
+            statement.setInt(2, lifetime.uriId);
+            statement.setLong(3, lifetime.hits);
+            statement.setTimestamp(4, Timestamp.valueOf(lifetime.firstHit));
+            statement.setTimestamp(5, Timestamp.valueOf(lifetime.lastHit));
+        });
+        if (sketchEnabled) {
+            mergeSketches(lifetimes);
+        }
+        if (!rows.isEmpty()) {
+            LocalDateTime first = rows.stream().map(lifetime -> lifetime.firstHit).min(Comparator.naturalOrder())
+                    .orElseThrow();
+            LocalDateTime last = rows.stream().map(lifetime -> lifetime.lastHit).max(Comparator.naturalOrder())
+                    .orElseThrow();
+            AfterCommit.run(() -> widen(first, last));
+        }
+        changeFeed.record(rows.stream()
+                .map(lifetime -> new HitChange(lifetime.appId, lifetime.uriId, lifetime.hits, lifetime.uniqueHits))
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Lifetime counts of the uris whose every hit lies in [start, end]. Without uri ids null is returned unless
+     * every uri is covered, and the whole table is read only when the window holds the earliest and the latest hit
+     * committed here.
+     */
+    public LifetimeTotals countLifetime(LocalDateTime start, LocalDateTime end, List<Integer> uriIds,
+                                       boolean unique) {
+        LocalDateTime fromTime = keptFrom(start);
+        LocalDateTime toTime = TimeBuckets.exclusiveEnd(end);
+        if (uriIds == null && !holdsAllHits(fromTime, toTime)) {
+            return null;
+        }
+        Timestamp from = Timestamp.valueOf(fromTime);
+        Timestamp to = Timestamp.valueOf(toTime);
+        LifetimeTotals lifetime = read("SELECT t.app_id, t.uri_id, t.hits, " + sketchColumn(unique) + ", " +
+                COVERED + " FROM stats_total AS t, (SELECT CAST(? AS timestamp) AS from_time, " +
+                "CAST(? AS timestamp) AS to_time) AS q" + (uriIds == null ? "" : " WHERE t.uri_id = ANY(?)"),
+                unique, statement -> {
+                    statement.setTimestamp(1, from);
+                    statement.setTimestamp(2, to);
+                    if (uriIds != null) {
+                        statement.setArray(3, statement.getConnection().createArrayOf("integer", uriIds.toArray()));
+                    }
+                });
+        return uriIds != null || lifetime.getUncoveredUriIds().isEmpty() ? lifetime : null;
+    }
+
+    /**
+     * Lifetime counts of the uris whose every hit lies in their own [from, to) window.
+     */
+    public LifetimeTotals countLifetime(List<UriHitRange> ranges, boolean unique) {
+        return read("SELECT t.app_id, t.uri_id, t.hits, " + sketchColumn(unique) + ", " + COVERED +
+                " FROM stats_total AS t JOIN unnest(?, ?, ?) AS q(uri_id, from_time, to_time) " +
+                "ON t.uri_id = q.uri_id", unique, statement -> {
+            Connection connection = statement.getConnection();
+            statement.setArray(1, connection.createArrayOf("integer", ranges.stream()
+                    .map(UriHitRange::getUriId).toArray()));
+            statement.setArray(2, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(keptFrom(range.getFrom()))).toArray()));
+            statement.setArray(3, connection.createArrayOf("timestamp", ranges.stream()
+                    .map(range -> Timestamp.valueOf(range.getTo())).toArray()));
+        });
+    }
+
+    /**
+     * Lifetime hits, or unique hit estimates, per (app, uri) of the uris, or of every uri without ids.
+     */
+    public Map<Long, Long> findLifetime(Collection<Integer> uriIds, boolean unique) {
+        Map<Long, Long> totals = new HashMap<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT t.app_id, t.uri_id, t.hits, " +
+                    sketchColumn(unique) + " FROM stats_total AS t" +
+                    (uriIds == null ? "" : " WHERE t.uri_id = ANY(?)"));
+            if (uriIds != null) {
+                statement.setArray(1, connection.createArrayOf("integer", uriIds.toArray()));
+            }
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            byte[] sketch = rs.getBytes("sketch");
+            if (!unique || sketch != null) {
+                totals.put(HitDictionary.key(rs.getInt("app_id"), rs.getInt("uri_id")),
+                        unique ? HyperLogLog.fromBytes(sketch).estimate() : rs.getLong("hits"));
+            }
+        });
+        return totals;
+    }
+
+    /**
+     * Window start moved up to the retention cutoff, before which raw hits are no longer stored.
+     */
+    private LocalDateTime keptFrom(LocalDateTime start) {
+        if (retentionDays <= 0) {
+            return start;
+        }
+        LocalDateTime cutoff = LocalDate.now().minusDays(retentionDays).atStartOfDay();
+        return start.isBefore(cutoff) ? cutoff : start;
+    }
+
+    /**
+     * Whether [from, to) may hold every stored hit. The bounds only ever widen and those committed by other
+     * instances are missed, so a window that fails the check cannot cover every uri, while one that passes still
+     * has each row checked by the query.
+     */
+    private boolean holdsAllHits(LocalDateTime from, LocalDateTime to) {
+        LocalDateTime first = firstHit;
+        LocalDateTime last = lastHit;
+        return first == null || last == null || !first.isBefore(from) && last.isBefore(to);
+    }
+
+    private synchronized void widen(LocalDateTime first, LocalDateTime last) {
+        if (firstHit == null || first.isBefore(firstHit)) {
+            firstHit = first;
+        }
+        if (lastHit == null || last.isAfter(lastHit)) {
+            lastHit = last;
+        }
+    }
+
+    private LifetimeTotals read(String sql, boolean unique, StatementSetter setter) {
+        Map<Long, Long> totals = new HashMap<>();
+        Set<Integer> uncovered = new HashSet<>();
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            setter.set(statement);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            int uriId = rs.getInt("uri_id");
+            byte[] sketch = rs.getBytes("sketch");
+            if (!rs.getBoolean("covered") || unique && sketch == null) {
+                uncovered.add(uriId);
+                return;
+            }
+            totals.put(HitDictionary.key(rs.getInt("app_id"), uriId),
+                    unique ? HyperLogLog.fromBytes(sketch).estimate() : rs.getLong("hits"));
+        });
+        if (unique && !uncovered.isEmpty()) {
+            totals.keySet().removeIf(key -> uncovered.contains(HitDictionary.uriId(key)));
+        }
+        return new LifetimeTotals(totals, uncovered);
+    }
+
+    private void mergeSketches(Map<Long, Lifetime> lifetimes) {
+        Collection<Lifetime> rows = lifetimes.values();
+        List<Object[]> updates = new ArrayList<>(rows.size());
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(FIND_SKETCHES);
+            statement.setArray(1, connection.createArrayOf("integer", rows.stream().map(row -> row.appId).toArray()));
+            statement.setArray(2, connection.createArrayOf("integer", rows.stream().map(row -> row.uriId).toArray()));
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            Lifetime lifetime = lifetimes.get(HitDictionary.key(rs.getInt("app_id"), rs.getInt("uri_id")));
+            byte[] stored = rs.getBytes("sketch");
+            HyperLogLog hll = stored == null ? new HyperLogLog() : HyperLogLog.fromBytes(stored);
+            long before = hll.estimate();
+            lifetime.ips.forEach(hll::add);
+            lifetime.uniqueHits = Math.max(hll.estimate() - before, 0);
+            updates.add(new Object[]{hll.toBytes(), lifetime.appId, lifetime.uriId});
+        });
+        jdbcTemplate.batchUpdate(UPDATE_SKETCH, updates);
+    }
+
+    /**
+     * Merges the covered DAY sketches and the raw ips of earlier days of each (app, uri), read in key order, into its
+     * lifetime sketch.
+     */
+    private void backfillSketches() {
+        Timestamp coveredStart = Timestamp.valueOf(sketchService.coveredFrom().atStartOfDay());
+        List<Object[]> updates = new ArrayList<>();
+        long[] current = {-1};
+        HyperLogLog[] merged = {null};
+        jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement("SELECT app_id, uri_id, sketch, NULL AS ip " +
+                    "FROM stats_sketch WHERE granularity = ? AND bucket >= ? " +
+                    "UNION ALL SELECT app_id, uri_id, NULL, ip FROM stats WHERE timestamp < ? AND ip IS NOT NULL " +
+                    "ORDER BY app_id, uri_id");
+            statement.setString(1, RollupGranularity.DAY.name());
+            statement.setTimestamp(2, coveredStart);
+            statement.setTimestamp(3, coveredStart);
+            statement.setFetchSize(FETCH_SIZE);
+            return statement;
+        }, (RowCallbackHandler) rs -> {
+            long key = HitDictionary.key(rs.getInt("app_id"), rs.getInt("uri_id"));
+            if (key != current[0]) {
+                if (merged[0] != null) {
+                    updates.add(sketchUpdate(current[0], merged[0]));
+                    if (updates.size() == FETCH_SIZE) {
+                        jdbcTemplate.batchUpdate(UPDATE_SKETCH, updates);
+                        updates.clear();
+                    }
+                }
+                current[0] = key;
+                merged[0] = new HyperLogLog();
+            }
+            byte[] sketch = rs.getBytes("sketch");
+            if (sketch != null) {
+                merged[0].merge(HyperLogLog.fromBytes(sketch));
+            } else {
+                merged[0].add(IP_CONVERTER.convertToEntityAttribute(rs.getBytes("ip")));
+            }
+        });
+        if (merged[0] != null) {
+            updates.add(sketchUpdate(current[0], merged[0]));
+        }
+        jdbcTemplate.batchUpdate(UPDATE_SKETCH, updates);
+    }
+
+    private static Object[] sketchUpdate(long key, HyperLogLog hll) {
+        return new Object[]{hll.toBytes(), HitDictionary.appId(key), HitDictionary.uriId(key)};
+    }
+
+    private static String sketchColumn(boolean unique) {
+        return unique ? "t.sketch" : "NULL AS sketch";
+    }
+
+    @FunctionalInterface
+    private interface StatementSetter {
+        void set(PreparedStatement statement) throws SQLException;
+    }
+
+    private static final class Lifetime {
+        private final int appId;
+        private final int uriId;
+        private final List<String> ips = new ArrayList<>();
+        private long hits;
+        private Long uniqueHits;
+        private LocalDateTime firstHit;
+        private LocalDateTime lastHit;
+
+        private Lifetime(int appId, int uriId) {
+            this.appId = appId;
+            this.uriId = uriId;
+        }
+
+        private void add(EndpointHit hit) {
+            hits++;
+            ips.add(hit.getIp());
+            if (firstHit == null || hit.getTimestamp().isBefore(firstHit)) {
+                firstHit = hit.getTimestamp();
+            }
+            if (lastHit == null || hit.getTimestamp().isAfter(lastHit)) {
+                lastHit = hit.getTimestamp();
+            }
+        }
+    }
+}
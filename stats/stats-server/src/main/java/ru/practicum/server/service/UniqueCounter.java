@@ -0,0 +1,20 @@
+package ru.practicum.server.service;
+
+import ru.practicum.server.model.UriHitRange;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Exact distinct-ip counting for /stats?unique=true, selected with stats.unique.engine. Results are keyed by
+ * {@link HitDictionary#key(int, int)}.
+ */
+public interface UniqueCounter {
+    Map<Long, Long> countUniqueHits(LocalDateTime start, LocalDateTime end, List<Integer> uriIds);
+
+    /**
+     * Distinct ips per (app, uri) with each uri counted over its own [from, to) window.
+     */
+    Map<Long, Long> countUniqueHits(List<UriHitRange> ranges);
+}
@@ -0,0 +1,31 @@
+package ru.practicum.server.sketch;
+
+import org.roaringbitmap.longlong.Roaring64NavigableMap;
+
+import java.io.*;
+
+public final class IpBitmaps {
+    private IpBitmaps() {
+    }
+
+    public static byte[] toBytes(Roaring64NavigableMap bitmap) {
+        bitmap.runOptimize();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) bitmap.serializedSizeInBytes());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            bitmap.serializePortable(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Roaring64NavigableMap fromBytes(byte[] bytes) {
+        Roaring64NavigableMap bitmap = new Roaring64NavigableMap();
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            bitmap.deserializePortable(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bitmap;
+    }
+}
@@ -0,0 +1,102 @@
+package ru.practicum.server.sketch;
+
+import java.util.function.LongPredicate;
+
+/**
+ * Open-addressing long to long map without boxing. Zero is reserved and cannot be used as a key.
+ */
+public class LongLongMap {
+    private static final long EMPTY = 0L;
+    private long[] keys;
+    private long[] values;
+    private int size;
+
+    public LongLongMap() {
+        this(16);
+    }
+
+    public LongLongMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize * 2, 16) - 1) << 1;
+        keys = new long[capacity];
+        values = new long[capacity];
+    }
+
+    public interface Consumer {
+        void accept(long key, long value);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long get(long key) {
+        int mask = keys.length - 1;
+        for (int i = index(key, mask); ; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i];
+            }
+            if (keys[i] == EMPTY) {
+                return 0L;
+            }
+        }
+    }
+
+    public void addTo(long key, long delta) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Zero key is reserved");
+        }
+        int mask = keys.length - 1;
+        int i = index(key, mask);
+        while (keys[i] != EMPTY && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (keys[i] == EMPTY) {
+            keys[i] = key;
+            if (++size * 2 > keys.length) {
+                values[i] = delta;
+                grow();
+                return;
+            }
+        }
+        values[i] += delta;
+    }
+
+    public void retainKeys(LongPredicate keep) {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length];
+        values = new long[oldValues.length];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY && keep.test(oldKeys[i])) {
+                addTo(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    public void forEach(Consumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                consumer.accept(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new long[oldValues.length * 2];
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                addTo(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int index(long key, int mask) {
+        long hash = key * 0x9e3779b97f4a7c15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+}
@@ -0,0 +1,67 @@
+package ru.practicum.server.sketch;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Ids added during the last window, held in a ring of time slices. A new slice is started every window / slices
+ * millis and the oldest one is dropped once the ring is full or holds more than maxIds, so memory stays bounded.
+ * Unlike a Bloom filter membership is exact: an id is only reported if it really was added.
+ */
+public class RecentIds {
+    private final Deque<Slice> slices = new ArrayDeque<>();
+    private final int maxSlices;
+    private final long sliceMillis;
+    private final int maxIds;
+    private int size;
+
+    public RecentIds(long windowMillis, int maxSlices, int maxIds) {
+        this.maxSlices = maxSlices;
+        this.sliceMillis = Math.max(windowMillis / maxSlices, 1);
+        this.maxIds = maxIds;
+    }
+
+    public synchronized boolean contains(UUID id) {
+        for (Slice slice : slices) {
+            if (slice.ids.contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public synchronized void addAll(Collection<UUID> ids) {
+        long now = System.currentTimeMillis();
+        Slice current = slices.peekLast();
+        if (current == null || now - current.startedAt >= sliceMillis) {
+            current = new Slice(now);
+            slices.addLast(current);
+        }
+        for (UUID id : ids) {
+            if (current.ids.add(id)) {
+                size++;
+            }
+        }
+        while (slices.size() > 1 && (slices.size() > maxSlices || size > maxIds
+                || now - slices.peekFirst().startedAt >= sliceMillis * maxSlices)) {
+            size -= slices.removeFirst().ids.size();
+        }
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    private static final class Slice {
+        private final long startedAt;
+        private final Set<UUID> ids = new HashSet<>();
+
+        private Slice(long startedAt) {
+            this.startedAt = startedAt;
+        }
+    }
+}
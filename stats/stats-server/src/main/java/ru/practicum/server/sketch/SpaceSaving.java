@@ -0,0 +1,104 @@
+package ru.practicum.server.sketch;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Space-Saving heavy-hitter summary over long keys with a fixed number of counters. Every key whose true weight is
+ * above total / capacity is kept, and a kept count overestimates the true weight by at most {@link #minCount()}.
+ * Counters sit in a binary min-heap so that the smallest one is replaced in O(log capacity).
+ */
+public class SpaceSaving {
+    private final long[] keys;
+    private final long[] counts;
+    private final Map<Long, Integer> slots;
+    private int size;
+
+    public SpaceSaving(int capacity) {
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        this.slots = new HashMap<>(capacity * 2);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long minCount() {
+        return size < keys.length ? 0 : counts[0];
+    }
+
+    /**
+     * Upper bound of the key's true weight: its counter when it is kept, {@link #minCount()} otherwise.
+     */
+    public long upperBound(long key) {
+        Integer slot = slots.get(key);
+        return slot == null ? minCount() : counts[slot];
+    }
+
+    public void offer(long key, long weight) {
+        Integer slot = slots.get(key);
+        if (slot != null) {
+            counts[slot] += weight;
+            siftDown(slot);
+        } else if (size < keys.length) {
+            keys[size] = key;
+            counts[size] = weight;
+            slots.put(key, size);
+            siftUp(size++);
+        } else {
+            slots.remove(keys[0]);
+            keys[0] = key;
+            counts[0] += weight;
+            slots.put(key, 0);
+            siftDown(0);
+        }
+    }
+
+    public void forEach(LongLongMap.Consumer consumer) {
+        for (int i = 0; i < size; i++) {
+            consumer.accept(keys[i], counts[i]);
+        }
+    }
+
+    private void siftUp(int slot) {
+        while (slot > 0) {
+            int parent = (slot - 1) >>> 1;
+            if (counts[parent] <= counts[slot]) {
+                return;
+            }
+            swap(slot, parent);
+            slot = parent;
+        }
+    }
+
+    private void siftDown(int slot) {
+        while (true) {
+            int smallest = slot;
+            int left = 2 * slot + 1;
+            int right = left + 1;
+            if (left < size && counts[left] < counts[smallest]) {
+                smallest = left;
+            }
+            if (right < size && counts[right] < counts[smallest]) {
+                smallest = right;
+            }
+            if (smallest == slot) {
+                return;
+            }
+            swap(slot, smallest);
+            slot = smallest;
+        }
+    }
+
+    private void swap(int first, int second) {
+        long key = keys[first];
+        long count = counts[first];
+        keys[first] = keys[second];
+        counts[first] = counts[second];
+        keys[second] = key;
+        counts[second] = count;
+        slots.put(keys[first], first);
+        slots.put(keys[second], second);
+    }
+}
@@ -0,0 +1,79 @@
+package ru.practicum.server.sketch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Uri ids arranged by path segment, so that the uris directly under or anywhere below a prefix are found by walking
+ * the prefix instead of scanning every known uri. Ids may be added while other threads read.
+ */
+public class UriTrie {
+    private final Node root = new Node();
+
+    public void add(String uri, int id) {
+        Node node = root;
+        for (String segment : uri.split("/", -1)) {
+            node = node.children.computeIfAbsent(segment, s -> new Node());
+        }
+        node.id = id;
+    }
+
+    /**
+     * Ids of the uris exactly one non-empty segment below the prefix, keyed by that segment.
+     */
+    public Map<String, Integer> children(String prefix) {
+        Map<String, Integer> ids = new HashMap<>();
+        Node node = find(prefix);
+        if (node != null) {
+            node.children.forEach((segment, child) -> {
+                Integer id = child.id;
+                if (id != null && !segment.isEmpty()) {
+                    ids.put(segment, id);
+                }
+            });
+        }
+        return ids;
+    }
+
+    /**
+     * Ids of all uris strictly below the prefix.
+     */
+    public List<Integer> descendants(String prefix) {
+        List<Integer> ids = new ArrayList<>();
+        Node node = find(prefix);
+        if (node == null) {
+            return ids;
+        }
+        Deque<Node> pending = new ArrayDeque<>(node.children.values());
+        while (!pending.isEmpty()) {
+            Node next = pending.pop();
+            Integer id = next.id;
+            if (id != null) {
+                ids.add(id);
+            }
+            pending.addAll(next.children.values());
+        }
+        return ids;
+    }
+
+    private Node find(String prefix) {
+        Node node = root;
+        for (String segment : prefix.split("/", -1)) {
+            node = node.children.get(segment);
+            if (node == null) {
+                return null;
+            }
+        }
+        return node;
+    }
+
+    private static final class Node {
+        private final Map<String, Node> children = new ConcurrentHashMap<>();
+        private volatile Integer id;
+    }
+}
@@ -0,0 +1,191 @@
+package ru.practicum.server.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Fixed-capacity, memory-mapped segment of hits stored column by column: time (epoch micros), app id, uri id, ip
+ * code and the number of identical hits in the row, each in its own primitive region after a 32-byte header with the
+ * format version, row count and min/max time. A segment is mapped as a single buffer, so it holds at most
+ * {@link #maxCapacity()} rows. Appends come from a single writer and become visible to readers on {@link #publish()}.
+ */
+public class Segment implements Closeable {
+    private static final int MAGIC = 0x53545347;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 32;
+    private static final int ROW_SIZE = Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES + Integer.BYTES;
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private final LongBuffer times;
+    private final IntBuffer appIds;
+    private final IntBuffer uriIds;
+    private final LongBuffer ips;
+    private final IntBuffer hits;
+    private int pending;
+    private long pendingMin;
+    private long pendingMax;
+    private volatile int size;
+    private volatile long minTime;
+    private volatile long maxTime;
+
+    private Segment(Path path, FileChannel channel, int capacity) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.capacity = capacity;
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) capacity * ROW_SIZE);
+        this.buffer.order(ByteOrder.nativeOrder());
+        long offset = HEADER_SIZE;
+        this.times = slice(offset, Long.BYTES).asLongBuffer();
+        offset += (long) capacity * Long.BYTES;
+        this.appIds = slice(offset, Integer.BYTES).asIntBuffer();
+        offset += (long) capacity * Integer.BYTES;
+        this.uriIds = slice(offset, Integer.BYTES).asIntBuffer();
+        offset += (long) capacity * Integer.BYTES;
+        this.ips = slice(offset, Long.BYTES).asLongBuffer();
+        offset += (long) capacity * Long.BYTES;
+        this.hits = slice(offset, Integer.BYTES).asIntBuffer();
+    }
+
+    /**
+     * Most rows a segment can hold while it still fits in one mapped buffer.
+     */
+    public static int maxCapacity() {
+        return (Integer.MAX_VALUE - HEADER_SIZE) / ROW_SIZE;
+    }
+
+    public static Segment create(Path path, int capacity) throws IOException {
+        if (capacity < 1 || capacity > maxCapacity()) {
+            throw new IllegalArgumentException("Segment capacity must be between 1 and " + maxCapacity() +
+                    " rows: " + capacity);
+        }
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Segment segment = new Segment(path, channel, capacity);
+        segment.buffer.putInt(0, MAGIC);
+        segment.buffer.putInt(4, capacity);
+        segment.buffer.putInt(12, VERSION);
+        segment.minTime = Long.MAX_VALUE;
+        segment.maxTime = Long.MIN_VALUE;
+        segment.pendingMin = Long.MAX_VALUE;
+        segment.pendingMax = Long.MIN_VALUE;
+        segment.writeHeader();
+        return segment;
+    }
+
+    public static Segment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+        header.order(ByteOrder.nativeOrder());
+        if (header.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a hit segment: " + path);
+        }
+        if (header.getInt(12) != VERSION) {
+            channel.close();
+            throw new IOException("Hit segment " + path + " has version " + header.getInt(12) + ", expected " +
+                    VERSION);
+        }
+        Segment segment = new Segment(path, channel, header.getInt(4));
+        segment.pending = segment.buffer.getInt(8);
+        segment.pendingMin = segment.buffer.getLong(16);
+        segment.pendingMax = segment.buffer.getLong(24);
+        segment.size = segment.pending;
+        segment.minTime = segment.pendingMin;
+        segment.maxTime = segment.pendingMax;
+        return segment;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return pending == capacity;
+    }
+
+    public long minTime() {
+        return minTime;
+    }
+
+    public long maxTime() {
+        return maxTime;
+    }
+
+    public void append(long time, int appId, int uriId, long ip, int count) {
+        times.put(pending, time);
+        appIds.put(pending, appId);
+        uriIds.put(pending, uriId);
+        ips.put(pending, ip);
+        hits.put(pending, count);
+        pending++;
+        pendingMin = Math.min(pendingMin, time);
+        pendingMax = Math.max(pendingMax, time);
+    }
+
+    public void publish() {
+        writeHeader();
+        minTime = pendingMin;
+        maxTime = pendingMax;
+        size = pending;
+    }
+
+    public long time(int row) {
+        return times.get(row);
+    }
+
+    public int appId(int row) {
+        return appIds.get(row);
+    }
+
+    public int uriId(int row) {
+        return uriIds.get(row);
+    }
+
+    public long ip(int row) {
+        return ips.get(row);
+    }
+
+    public int hits(int row) {
+        return hits.get(row);
+    }
+
+    public void force() {
+        buffer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    private void writeHeader() {
+        buffer.putInt(8, pending);
+        buffer.putLong(16, pendingMin);
+        buffer.putLong(24, pendingMax);
+    }
+
+    /**
+     * The column starting at offset, capacity values of valueSize bytes each.
+     */
+    private ByteBuffer slice(long offset, int valueSize) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(Math.toIntExact(offset));
+        view.limit(Math.toIntExact(offset + (long) capacity * valueSize));
+        return view.slice().order(ByteOrder.nativeOrder());
+    }
+}
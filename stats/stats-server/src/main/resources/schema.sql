@@ -1,9 +1,116 @@
-DROP TABLE IF EXISTS stats;
+CREATE SEQUENCE IF NOT EXISTS stats_id_seq INCREMENT BY 50;
+
+CREATE TABLE IF NOT EXISTS stats_app_dictionary(
+    id  INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    app VARCHAR(100) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_uri_dictionary(
+    id  INTEGER GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    uri VARCHAR(100) NOT NULL UNIQUE
+);
 
 CREATE TABLE IF NOT EXISTS stats(
-    id        BIGINT GENERATED ALWAYS AS IDENTITY PRIMARY KEY,
-    app       VARCHAR(100),
-    uri       VARCHAR(100),
-    ip        VARCHAR(100),
-    timestamp TIMESTAMP WITHOUT TIME ZONE
-);
\ No newline at end of file
+    id        BIGINT DEFAULT nextval('stats_id_seq') NOT NULL,
+    app_id    INTEGER                     NOT NULL,
+    uri_id    INTEGER                     NOT NULL,
+    ip        BYTEA,
+    timestamp TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits      INTEGER DEFAULT 1             NOT NULL,
+    PRIMARY KEY (id, timestamp)
+) PARTITION BY RANGE (timestamp);
+
+CREATE TABLE IF NOT EXISTS stats_default PARTITION OF stats DEFAULT;
+
+CREATE INDEX IF NOT EXISTS stats_timestamp_idx ON stats (timestamp);
+
+CREATE INDEX IF NOT EXISTS stats_uri_timestamp_idx ON stats (uri_id, timestamp);
+
+CREATE TABLE IF NOT EXISTS stats_rollup(
+    granularity VARCHAR(10)                 NOT NULL,
+    app_id      INTEGER                     NOT NULL,
+    uri_id      INTEGER                     NOT NULL,
+    bucket      TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    hits        BIGINT                      NOT NULL,
+    PRIMARY KEY (granularity, app_id, uri_id, bucket)
+);
+
+CREATE INDEX IF NOT EXISTS stats_rollup_bucket_idx ON stats_rollup (granularity, bucket);
+
+CREATE TABLE IF NOT EXISTS stats_rollup_coverage(
+    id           INTEGER PRIMARY KEY,
+    covered_from DATE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_sketch(
+    granularity VARCHAR(10)                 NOT NULL,
+    app_id      INTEGER                     NOT NULL,
+    uri_id      INTEGER                     NOT NULL,
+    bucket      TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    sketch      BYTEA                       NOT NULL,
+    PRIMARY KEY (granularity, app_id, uri_id, bucket)
+);
+
+CREATE INDEX IF NOT EXISTS stats_sketch_bucket_idx ON stats_sketch (granularity, bucket);
+
+CREATE TABLE IF NOT EXISTS stats_sketch_coverage(
+    id           INTEGER PRIMARY KEY,
+    covered_from DATE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_total(
+    app_id    INTEGER                     NOT NULL,
+    uri_id    INTEGER                     NOT NULL,
+    hits      BIGINT                      NOT NULL,
+    first_hit TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    last_hit  TIMESTAMP WITHOUT TIME ZONE NOT NULL,
+    sketch    BYTEA,
+    PRIMARY KEY (app_id, uri_id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_total_uri_idx ON stats_total (uri_id);
+
+CREATE TABLE IF NOT EXISTS stats_change(
+    tx          BIGINT                                            NOT NULL,
+    id          BIGINT GENERATED BY DEFAULT AS IDENTITY           NOT NULL,
+    app_id      INTEGER                                           NOT NULL,
+    uri_id      INTEGER                                           NOT NULL,
+    hits        BIGINT                                            NOT NULL,
+    unique_hits BIGINT,
+    created     TIMESTAMP WITHOUT TIME ZONE DEFAULT LOCALTIMESTAMP NOT NULL,
+    PRIMARY KEY (tx, id)
+);
+
+CREATE INDEX IF NOT EXISTS stats_change_created_idx ON stats_change (created);
+
+CREATE TABLE IF NOT EXISTS stats_ip_dictionary(
+    id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+    ip VARCHAR(100) NOT NULL UNIQUE
+);
+
+CREATE TABLE IF NOT EXISTS stats_bitmap(
+    app_id INTEGER NOT NULL,
+    uri_id INTEGER NOT NULL,
+    day    DATE    NOT NULL,
+    bitmap BYTEA   NOT NULL,
+    PRIMARY KEY (app_id, uri_id, day)
+);
+
+CREATE INDEX IF NOT EXISTS stats_bitmap_day_idx ON stats_bitmap (day);
+
+CREATE TABLE IF NOT EXISTS stats_bitmap_coverage(
+    id           INTEGER PRIMARY KEY,
+    covered_from DATE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_compaction(
+    id               INTEGER PRIMARY KEY,
+    compacted_before TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE TABLE IF NOT EXISTS stats_hit_id(
+    hit_id   UUID PRIMARY KEY,
+    received TIMESTAMP WITHOUT TIME ZONE DEFAULT LOCALTIMESTAMP NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS stats_hit_id_received_idx ON stats_hit_id (received);